@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Measures how fast a large commit is written into an empty working
+ *  directory. A scratch object store is filled with a synthetic commit
+ *  of FILES small blobs spread over directories of 1000 files, and the
+ *  flattened tree is then materialized once with a single thread and
+ *  once with THREADS writers.
+ *
+ *  It lives outside gitlet/ so the build leaves it out. From proj2:
+ *      javac -d OUT gitlet/*.java bench/gitlet/CheckoutBenchmark.java
+ *      java -cp OUT gitlet.CheckoutBenchmark [FILES] [THREADS]
+ *  FILES defaults to 100000 and THREADS to one per processor. Nothing
+ *  outside the scratch directory, which is removed at the end, is touched.
+ *
+ *  @author Jiehao Guan
+ */
+public class CheckoutBenchmark {
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        File scratch = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            ObjectStore store = new ObjectStore(new File(scratch, "objects"));
+
+            long start = System.nanoTime();
+            Map<String, String> blobs = new HashMap<>();
+            store.beginBatch();
+            for (int i = 0; i < count; i += 1) {
+                String path = "d" + (i / 1000) + "/f" + i + ".txt";
+                byte[] content = ("line of file " + i + "\n").repeat(1 + i % 64)
+                        .getBytes(StandardCharsets.UTF_8);
+                String id = Utils.sha1(path, content);
+                store.write(id, ObjectStore.BLOB, content);
+                blobs.put(path, id);
+            }
+            String tree = Tree.build(store, blobs);
+            store.commitBatch();
+            report("write " + count + " blobs and their trees", start, count);
+
+            start = System.nanoTime();
+            Map<String, String> files = Tree.flatten(store, tree);
+            report("flatten the tree", start, files.size());
+
+            for (int n : new int[] {1, threads}) {
+                File root = new File(scratch, "work-" + n);
+                start = System.nanoTime();
+                new Materializer(store, root, n).write(files);
+                report("materialize with " + n + " writer(s)", start, files.size());
+            }
+        } finally {
+            delete(scratch);
+        }
+    }
+
+    /* Print the time since START for an action on N files */
+    private static void report(String action, long start, int n) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-40s %8.3f s  %10.0f files/s%n", action, seconds, n / seconds);
+    }
+
+    /* Delete FILE and everything under it */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
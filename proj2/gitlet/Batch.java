@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.exitWithError;
+
+/** Runs a script of gitlet commands in one process, so replaying a long
+ *  script pays for starting the JVM, loading the classes and warming up
+ *  the caches once:
+ *
+ *      java gitlet.Main batch           read the commands from stdin
+ *      java gitlet.Main batch FILE      read the commands from FILE
+ *
+ *  Each line is one command, written as it would follow java gitlet.Main
+ *  in a shell: words are split at spaces, and "..." or '...' keep spaces
+ *  in one word, as in commit "a message". A backslash outside single
+ *  quotes takes the next character as it is. Empty lines and lines
+ *  starting with # are skipped.
+ *
+ *  The standard output gets exactly what the commands would print one by
+ *  one, error messages included. An error only ends its own command: it
+ *  is reported on the standard error as
+ *      batch: line N: MESSAGE
+ *  and the script goes on. At the end the standard error gets the number
+ *  of commands run and failed, and the process exits with status 1 if any
+ *  command failed.
+ *
+ *  @author Jiehao Guan
+ */
+public class Batch {
+    /* The size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Run the commands of FILE, or of the standard input if FILE is null.
+     * Returns the number of commands that failed, from which Main sets
+     * the exit status.
+     */
+    public static int run(String file) {
+        InputStream in;
+        if (file == null) {
+            in = new FileInputStream(FileDescriptor.in);
+        } else {
+            File script = new File(file);
+            if (!script.isFile()) {
+                exitWithError("File does not exist.");
+            }
+            try {
+                in = new FileInputStream(script);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /* one buffer behind both System.out and the direct writers, so
+         * their output stays in order, flushed after every command
+         */
+        OutputStream out = new BufferedOutputStream(Utils.output(), BUFFER_SIZE);
+        PrintStream print = new PrintStream(out, false);
+        PrintStream stdout = System.out;
+        OutputStream output = Utils.output();
+        System.setOut(print);
+        Utils.setOutput(out);
+
+        int commands = 0;
+        int failed = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber += 1;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                commands += 1;
+                String error;
+                try {
+                    error = runCommand(split(line).toArray(new String[0]));
+                } catch (GitletException excp) {
+                    error = excp.getMessage();
+                    print.println(error);
+                } catch (RuntimeException excp) {
+                    print.flush();
+                    excp.printStackTrace();
+                    error = excp.toString();
+                }
+                print.flush();
+                if (error != null) {
+                    failed += 1;
+                    System.err.println("batch: line " + lineNumber + ": " + error);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            print.flush();
+            System.setOut(stdout);
+            Utils.setOutput(output);
+        }
+
+        System.err.println("batch: " + commands + " commands, " + failed + " failed");
+        return failed;
+    }
+
+    /* Run the command ARGS of the script. Returns the error, or null. */
+    private static String runCommand(String[] args) {
+        if (args[0].equals("batch") || args[0].equals("daemon")) {
+            exitWithError("Cannot run " + args[0] + " in a batch.");
+        }
+        return Main.runInProcess(args);
+    }
+
+    /* Split LINE into words as described in the class comment */
+    static List<String> split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\\') {
+                if (i + 1 == line.length()) {
+                    exitWithError("Incomplete escape at the end of the line.");
+                }
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quote != 0) {
+            exitWithError("Unterminated quote.");
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
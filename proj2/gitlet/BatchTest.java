@@ -0,0 +1,137 @@
+package gitlet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/** Tests of the splitting of script lines and of the errors and exit
+ *  status of Batch.
+ *  @author Jiehao Guan
+ */
+public class BatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* What a finished process wrote and its exit status */
+    private static class Result {
+        final String out;
+        final String err;
+        final int status;
+
+        Result(String out, String err, int status) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+    }
+
+    /* Run java gitlet.Main batch on SCRIPT in a new directory */
+    private Result batch(String script) throws IOException, InterruptedException {
+        File dir = folder.newFolder("repo");
+        File scriptFile = new File(dir, "script.txt");
+        Utils.writeContents(scriptFile, script);
+        File out = folder.newFile("out");
+        File err = folder.newFile("err");
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main", "batch",
+                scriptFile.getName())
+                .directory(dir).redirectOutput(out).redirectError(err).start();
+        int status = process.waitFor();
+        return new Result(Utils.readContentsAsString(out), Utils.readContentsAsString(err),
+                status);
+    }
+
+    @Test
+    /** Words are split at spaces, which quotes and backslashes keep */
+    public void splitQuotedWords() {
+        assertEquals(Arrays.asList("commit", "a  message"), Batch.split("commit \"a  message\""));
+        assertEquals(Arrays.asList("commit", "it's \"here\""),
+                Batch.split("commit 'it'\\''s \"here\"'"));
+        assertEquals(Arrays.asList("commit", "a b"), Batch.split("  commit   a\\ b  "));
+        assertEquals(Arrays.asList("branch", "x\\y"), Batch.split("branch 'x\\y'"));
+        assertEquals(Arrays.asList("commit", ""), Batch.split("commit \"\""));
+        assertEquals(Arrays.asList("add", "ab"), Batch.split("add a\"\"b"));
+        assertEquals(Collections.emptyList(), Batch.split("   "));
+    }
+
+    @Test
+    /** An unterminated quote or escape is an error */
+    public void splitErrors() {
+        try {
+            Batch.split("commit \"a message");
+            fail("an unterminated quote was accepted");
+        } catch (GitletException excp) {
+            assertEquals("Unterminated quote.", excp.getMessage());
+        }
+        try {
+            Batch.split("commit a\\");
+            fail("an incomplete escape was accepted");
+        } catch (GitletException excp) {
+            assertEquals("Incomplete escape at the end of the line.", excp.getMessage());
+        }
+    }
+
+    @Test
+    /** A script of commands that all succeed exits with status 0 */
+    public void successExitsZero() throws IOException, InterruptedException {
+        Result result = batch("# a comment\n\ninit\nbranch other\n\n  # another\nstatus\n");
+        assertEquals(0, result.status);
+        assertEquals("=== Branches ===\n*master\nother\n=== Staged Files ===\n"
+                + "=== Removed Files ===\n=== Modifications Not Staged For Commit ===\n"
+                + "=== Untracked Files ===\nscript.txt\n", result.out);
+        assertEquals("batch: 3 commands, 0 failed\n", result.err);
+    }
+
+    @Test
+    /** A failing line is reported with its number, the script goes on, and
+     *  the process exits with status 1 */
+    public void failureExitsOne() throws IOException, InterruptedException {
+        Result result = batch("init\n\ncheckout nosuch\ncommit \"unterminated\n"
+                + "batch script.txt\nbranch other\nbranch other\n");
+        assertEquals(1, result.status);
+        assertEquals("No such branch exists.\nUnterminated quote.\n"
+                + "Cannot run batch in a batch.\n"
+                + "A branch with that name already exists.\n", result.out);
+        assertEquals("batch: line 3: No such branch exists.\n"
+                + "batch: line 4: Unterminated quote.\n"
+                + "batch: line 5: Cannot run batch in a batch.\n"
+                + "batch: line 7: A branch with that name already exists.\n"
+                + "batch: 6 commands, 4 failed\n", result.err);
+    }
+
+    @Test
+    /** run returns the number of failed commands instead of ending the
+     *  process, as it runs inside the daemon too */
+    public void runReturnsFailures() throws IOException {
+        File script = folder.newFile("script.txt");
+        Utils.writeContents(script, "nosuch\n# skipped\nbatch x\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream stderr = System.err;
+        OutputStream output = Utils.output();
+        Utils.setOutput(out);
+        System.setErr(new PrintStream(err, true));
+        try {
+            assertEquals(2, Batch.run(script.getPath()));
+        } finally {
+            System.setErr(stderr);
+            Utils.setOutput(output);
+        }
+        assertEquals("No command with that name exists.\nCannot run batch in a batch.\n",
+                out.toString());
+        assertEquals("batch: line 1: No command with that name exists.\n"
+                + "batch: line 3: Cannot run batch in a batch.\n"
+                + "batch: 2 commands, 2 failed\n", err.toString());
+    }
+}
@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, in the style of a roaring
+ *  bitmap. The values are split by their high 16 bits into chunks of
+ *  65536, and each chunk is kept either as a sorted array of its low 16
+ *  bits, while it has at most ARRAY_MAX values, or as a plain 8 KB bitset
+ *  once it is denser. The intersection of two bitsets goes back to an
+ *  array if it is sparse. Sparse sets stay small and dense ones, such as
+ *  the commits reachable from a branch, cost one bit per value.
+ *
+ *  Encoding: chunk count, then for each chunk in order: high bits (4
+ *  bytes), kind (1 byte), and then either the value count (4 bytes) and
+ *  that many 2-byte low bits, or the 1024 longs of the bitset.
+ *
+ *  @author Jiehao Guan
+ */
+public class Bitmap {
+    /* The most values a chunk keeps as an array */
+    static final int ARRAY_MAX = 4096;
+
+    /* The number of longs of a bitset chunk */
+    private static final int WORDS = 1024;
+
+    /* The kinds of chunk in the encoding */
+    private static final byte ARRAY = 0;
+    private static final byte BITSET = 1;
+
+    /* The values sharing one value of the high 16 bits */
+    private static class Chunk {
+        /* The sorted low bits, or null once the chunk is a bitset */
+        char[] array = new char[4];
+        long[] bits;
+        int cardinality;
+
+        boolean contains(int low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, (char) low) >= 0;
+        }
+
+        /* Add LOW, returning false if it was already there */
+        boolean add(int low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] |= mask;
+                cardinality += 1;
+                return true;
+            }
+            int pos = Arrays.binarySearch(array, 0, cardinality, (char) low);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            if (cardinality == ARRAY_MAX) {
+                toBitset();
+                return add(low);
+            }
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(array, pos, array, pos + 1, cardinality - pos);
+            array[pos] = (char) low;
+            cardinality += 1;
+            return true;
+        }
+
+        /* Add every value of OTHER */
+        void or(Chunk other) {
+            if (bits == null && other.bits == null
+                    && cardinality + other.cardinality <= ARRAY_MAX) {
+                char[] merged = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0;
+                int j = 0;
+                int n = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    char next;
+                    if (j == other.cardinality
+                            || (i < cardinality && array[i] < other.array[j])) {
+                        next = array[i++];
+                    } else if (i == cardinality || other.array[j] < array[i]) {
+                        next = other.array[j++];
+                    } else {
+                        next = array[i++];
+                        j += 1;
+                    }
+                    merged[n++] = next;
+                }
+                array = merged;
+                cardinality = n;
+                return;
+            }
+            if (bits == null) {
+                toBitset();
+            }
+            if (other.bits != null) {
+                int count = 0;
+                for (int w = 0; w < WORDS; w += 1) {
+                    bits[w] |= other.bits[w];
+                    count += Long.bitCount(bits[w]);
+                }
+                cardinality = count;
+            } else {
+                for (int i = 0; i < other.cardinality; i += 1) {
+                    add(other.array[i]);
+                }
+            }
+        }
+
+        /* Get the values in both this chunk and OTHER as a new chunk */
+        Chunk and(Chunk other) {
+            Chunk result = new Chunk();
+            if (bits != null && other.bits != null) {
+                result.toBitset();
+                for (int w = 0; w < WORDS; w += 1) {
+                    result.bits[w] = bits[w] & other.bits[w];
+                    result.cardinality += Long.bitCount(result.bits[w]);
+                }
+                if (result.cardinality <= ARRAY_MAX) {
+                    result.toArray();
+                }
+                return result;
+            }
+            Chunk sparse = bits == null ? this : other;
+            Chunk dense = sparse == this ? other : this;
+            result.array = new char[Math.max(4, sparse.cardinality)];
+            for (int i = 0; i < sparse.cardinality; i += 1) {
+                if (dense.contains(sparse.array[i])) {
+                    result.array[result.cardinality++] = sparse.array[i];
+                }
+            }
+            return result;
+        }
+
+        /* Switch from the array to the bitset */
+        void toBitset() {
+            bits = new long[WORDS];
+            for (int i = 0; i < cardinality; i += 1) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+
+        /* Switch from the bitset back to the array */
+        void toArray() {
+            char[] values = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = values;
+            bits = null;
+        }
+
+        /* Pass every value, HIGH being the high bits, to ACTION in order */
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i += 1) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < WORDS; w += 1) {
+                long word = bits[w];
+                while (word != 0) {
+                    action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        Chunk copy() {
+            Chunk result = new Chunk();
+            result.array = array == null ? null : array.clone();
+            result.bits = bits == null ? null : bits.clone();
+            result.cardinality = cardinality;
+            return result;
+        }
+    }
+
+    /* The chunks, keyed by the high 16 bits */
+    private final TreeMap<Integer, Chunk> chunks = new TreeMap<>();
+
+    /* Check if VALUE is in the set */
+    public boolean contains(int value) {
+        Chunk chunk = chunks.get(value >>> 16);
+        return chunk != null && chunk.contains(value & 0xffff);
+    }
+
+    /* Add VALUE to the set, returning false if it was already there */
+    public boolean add(int value) {
+        return chunks.computeIfAbsent(value >>> 16, k -> new Chunk()).add(value & 0xffff);
+    }
+
+    /* Add every value of OTHER to the set */
+    public void or(Bitmap other) {
+        for (Map.Entry<Integer, Chunk> entry : other.chunks.entrySet()) {
+            Chunk chunk = chunks.get(entry.getKey());
+            if (chunk == null) {
+                chunks.put(entry.getKey(), entry.getValue().copy());
+            } else {
+                chunk.or(entry.getValue());
+            }
+        }
+    }
+
+    /* Get the values in both this set and OTHER as a new set */
+    public Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        for (Map.Entry<Integer, Chunk> entry : chunks.entrySet()) {
+            Chunk chunk = other.chunks.get(entry.getKey());
+            if (chunk != null) {
+                Chunk both = entry.getValue().and(chunk);
+                if (both.cardinality > 0) {
+                    result.chunks.put(entry.getKey(), both);
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Get the number of values in the set */
+    public int cardinality() {
+        int count = 0;
+        for (Chunk chunk : chunks.values()) {
+            count += chunk.cardinality;
+        }
+        return count;
+    }
+
+    /* Pass every value to ACTION, in increasing order */
+    public void forEach(IntConsumer action) {
+        for (Map.Entry<Integer, Chunk> entry : chunks.entrySet()) {
+            entry.getValue().forEach(entry.getKey() << 16, action);
+        }
+    }
+
+    /* Get the values, in increasing order */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int[] n = {0};
+        forEach(value -> result[n[0]++] = value);
+        return result;
+    }
+
+    /* Write the set to OUT, see the class comment for the layout */
+    public void encode(DataOutputStream out) throws IOException {
+        out.writeInt(chunks.size());
+        for (Map.Entry<Integer, Chunk> entry : chunks.entrySet()) {
+            Chunk chunk = entry.getValue();
+            out.writeInt(entry.getKey());
+            if (chunk.bits == null) {
+                out.writeByte(ARRAY);
+                out.writeInt(chunk.cardinality);
+                for (int i = 0; i < chunk.cardinality; i += 1) {
+                    out.writeChar(chunk.array[i]);
+                }
+            } else {
+                out.writeByte(BITSET);
+                for (long word : chunk.bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /* Read a set written by encode from IN */
+    public static Bitmap decode(ByteBuffer in) {
+        Bitmap bitmap = new Bitmap();
+        int count = in.getInt();
+        for (int c = 0; c < count; c += 1) {
+            int high = in.getInt();
+            Chunk chunk = new Chunk();
+            if (in.get() == ARRAY) {
+                chunk.cardinality = in.getInt();
+                chunk.array = new char[Math.max(4, chunk.cardinality)];
+                for (int i = 0; i < chunk.cardinality; i += 1) {
+                    chunk.array[i] = in.getChar();
+                }
+            } else {
+                chunk.array = null;
+                chunk.bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    chunk.bits[w] = in.getLong();
+                    chunk.cardinality += Long.bitCount(chunk.bits[w]);
+                }
+            }
+            bitmap.chunks.put(high, chunk);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/** Tests of the compressed int sets, Bitmap, and of the switches of
+ *  their chunks between arrays and bitsets.
+ *  @author Jiehao Guan
+ */
+public class BitmapTest {
+    /* The encoded size of a set of one array chunk of N values */
+    private static int arraySize(int n) {
+        return 4 + 4 + 1 + 4 + 2 * n;
+    }
+
+    /* The encoded size of a set of one bitset chunk */
+    private static final int BITSET_SIZE = 4 + 4 + 1 + 8 * 1024;
+
+    private static byte[] encode(Bitmap bitmap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        bitmap.encode(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /* Get a set of the values from START, step STEP, COUNT of them */
+    private static Bitmap range(int start, int step, int count) {
+        Bitmap result = new Bitmap();
+        for (int i = 0; i < count; i += 1) {
+            result.add(start + i * step);
+        }
+        return result;
+    }
+
+    /* Check BITMAP holds exactly EXPECTED, also once encoded and decoded */
+    private static void assertSame(TreeSet<Integer> expected, Bitmap bitmap) throws IOException {
+        int[] values = expected.stream().mapToInt(Integer::intValue).toArray();
+        assertArrayEquals(values, bitmap.toArray());
+        assertEquals(values.length, bitmap.cardinality());
+        for (int value : values) {
+            assertTrue(bitmap.contains(value));
+        }
+        assertArrayEquals(values, Bitmap.decode(ByteBuffer.wrap(encode(bitmap))).toArray());
+    }
+
+    @Test
+    /** A chunk is an array up to ARRAY_MAX values and a bitset past it */
+    public void arrayBecomesBitset() throws IOException {
+        Bitmap bitmap = range(0, 7, Bitmap.ARRAY_MAX);
+        assertEquals(arraySize(Bitmap.ARRAY_MAX), encode(bitmap).length);
+        assertFalse(bitmap.add(7));
+        assertEquals(arraySize(Bitmap.ARRAY_MAX), encode(bitmap).length);
+
+        assertTrue(bitmap.add(1));
+        assertEquals(BITSET_SIZE, encode(bitmap).length);
+        assertEquals(Bitmap.ARRAY_MAX + 1, bitmap.cardinality());
+        assertTrue(bitmap.contains(1));
+        assertTrue(bitmap.contains(7 * (Bitmap.ARRAY_MAX - 1)));
+        assertFalse(bitmap.contains(2));
+        assertFalse(bitmap.add(1));
+    }
+
+    @Test
+    /** The union of two arrays stays an array while it fits */
+    public void orOfArrays() throws IOException {
+        Bitmap small = range(0, 2, 3000);
+        small.or(range(1000, 2, 1000));
+        assertEquals(arraySize(3000), encode(small).length);
+
+        Bitmap large = range(0, 2, 3000);
+        large.or(range(1, 2, 3000));
+        assertEquals(BITSET_SIZE, encode(large).length);
+        assertArrayEquals(range(0, 1, 6000).toArray(), large.toArray());
+    }
+
+    @Test
+    /** The intersection of two bitsets is an array again once it is
+     *  sparse, and stays a bitset while it is dense */
+    public void andOfBitsetsBecomesArray() throws IOException {
+        Bitmap odd = range(1, 2, 30000);
+        Bitmap threes = range(0, 3, 20000);
+        Bitmap both = odd.and(threes);
+        assertEquals(BITSET_SIZE, encode(both).length);
+        assertArrayEquals(range(3, 6, 10000).toArray(), both.toArray());
+
+        Bitmap sparse = odd.and(range(0, 5, 13000));
+        assertEquals(6000, sparse.cardinality());
+        assertEquals(BITSET_SIZE, encode(sparse).length);
+
+        Bitmap few = odd.and(range(0, 2, 8000));
+        assertEquals(0, few.cardinality());
+        assertEquals(4, encode(few).length);
+
+        Bitmap some = odd.and(range(1, 7, 8192));
+        assertEquals(arraySize(4096), encode(some).length);
+        assertArrayEquals(range(1, 14, 4096).toArray(), some.toArray());
+
+        /* the array it became grows into a bitset again */
+        some.or(range(0, 2, 10));
+        assertEquals(BITSET_SIZE, encode(some).length);
+        assertEquals(4106, some.cardinality());
+    }
+
+    @Test
+    /** The intersection of an array and a bitset is an array */
+    public void andOfArrayAndBitset() throws IOException {
+        Bitmap dense = range(0, 1, 10000);
+        Bitmap array = range(5000, 10, 1000);
+        assertEquals(arraySize(500), encode(dense.and(array)).length);
+        assertEquals(arraySize(500), encode(array.and(dense)).length);
+        assertArrayEquals(range(5000, 10, 500).toArray(), array.and(dense).toArray());
+    }
+
+    @Test
+    /** Random sets over several chunks agree with a TreeSet */
+    public void randomSets() throws IOException {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 30; trial += 1) {
+            Bitmap a = new Bitmap();
+            Bitmap b = new Bitmap();
+            TreeSet<Integer> aSet = new TreeSet<>();
+            TreeSet<Integer> bSet = new TreeSet<>();
+            int range = 1 << (12 + random.nextInt(7));
+            int n = random.nextInt(20000);
+            for (int i = 0; i < n; i += 1) {
+                int value = random.nextInt(range);
+                assertEquals(aSet.add(value), a.add(value));
+                value = random.nextInt(range) + (random.nextBoolean() ? 70000 : 0);
+                assertEquals(bSet.add(value), b.add(value));
+            }
+            assertSame(aSet, a);
+            assertSame(bSet, b);
+
+            TreeSet<Integer> both = new TreeSet<>(aSet);
+            both.retainAll(bSet);
+            assertSame(both, a.and(b));
+            assertSame(both, b.and(a));
+
+            a.or(b);
+            aSet.addAll(bSet);
+            assertSame(aSet, a);
+            assertSame(bSet, b);
+        }
+    }
+}
@@ -1,30 +1,43 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
 
 /** Represents a gitlet Blob object.
- *  does at a high level.
+ *  A blob only points at its source file. The id is hashed by streaming
+ *  the file, and saving copies it straight into the object store, so a
+ *  large file is never held in memory.
  *
  *  @author Jiehao Guan
  */
 
-public class Blob implements Serializable {
+public class Blob {
     /* The name of the source file */
     private String filename;
 
-    /* The content of the file */
-    private byte[] content;
+    /* The file the content is read from */
+    private File source;
+
+    /* The sha1 ID of the blob, hashed on first use */
+    private String sha1ID;
 
 
     public Blob(String source, File sourceFile) {
         filename = source;
-        content = Utils.readContents(sourceFile);
+        this.source = sourceFile;
+    }
+
+    /* A blob of SOURCEFILE whose ID is already known, e.g. from the stat cache */
+    public Blob(String source, File sourceFile, String id) {
+        this(source, sourceFile);
+        sha1ID = id;
     }
 
     /* Get the ID of the blob */
     public String getID() {
-        return Utils.sha1(filename, content);
+        if (sha1ID == null) {
+            sha1ID = Utils.sha1(filename, source);
+        }
+        return sha1ID;
     }
 
     /* Get the filename of the blob */
@@ -35,17 +48,14 @@ public class Blob implements Serializable {
     /* Get the content of the blob */
 
     public byte[] getContent() {
-        return content;
-    }
-
-    /* Get the Blob file */
-    public File getFile() {
-        return Utils.getObjFile(getID());
+        return Utils.readContents(source);
     }
 
-    /* save the blob to the objects folder */
+    /* save the blob to the objects folder
+     * only the content is stored, so checkout can stream it back out
+     */
     public void save() {
-        Utils.saveObj(getFile(), this);
+        Repository.OBJECT_STORE.write(getID(), ObjectStore.BLOB, source);
     }
 
 }
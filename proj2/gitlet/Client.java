@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A thin client of the gitlet daemon: sends the command to the daemon
+ *  of the repository in the working directory and copies the answer to
+ *  the standard output, and exits with the status the daemon sends after
+ *  it. If no daemon is listening it runs the command itself, so scripts
+ *  can always use
+ *      java gitlet.Client ARGS
+ *  in place of java gitlet.Main ARGS. See Daemon for the protocol.
+ *
+ *  @author Jiehao Guan
+ */
+public class Client {
+    /* The size of the end of an answer: NUL and the exit status */
+    private static final int TRAILER_SIZE = 2;
+
+    public static void main(String[] args) {
+        int status = request(args);
+        if (status < 0) {
+            Main.main(args);
+        } else if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /* Send the command ARGS to the daemon and print its answer. Returns
+     * the exit status the daemon sent, 1 if the answer was cut short, or
+     * -1, having sent nothing, if no daemon is listening.
+     */
+    static int request(String[] args) {
+        File cwd = new File(System.getProperty("user.dir"));
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Daemon.socketPath(cwd)));
+        } catch (IOException excp) {
+            return -1;
+        }
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        writeField(request, String.valueOf(args.length));
+        writeField(request, cwd.getPath());
+        for (String arg : args) {
+            writeField(request, arg);
+        }
+        int status = 1;
+        try (channel) {
+            ByteBuffer buffer = ByteBuffer.wrap(request.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.shutdownOutput();
+
+            FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+            buffer = ByteBuffer.allocate(1 << 16);
+            while (channel.read(buffer) >= 0) {
+                /* the last bytes read may be the trailer, so they are kept */
+                buffer.flip();
+                int end = buffer.limit();
+                buffer.limit(Math.max(0, end - TRAILER_SIZE));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.limit(end);
+                buffer.compact();
+            }
+            buffer.flip();
+            if (buffer.remaining() == TRAILER_SIZE && buffer.get(0) == 0) {
+                status = buffer.get(1) & 0xff;
+            } else {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        } catch (IOException excp) {
+            /* the daemon went away, or the output was closed as by head */
+        }
+        return status;
+    }
+
+    /* Write VALUE to OUT as a field of a request */
+    private static void writeField(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+        out.write(0);
+    }
+}
@@ -1,70 +1,145 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 /** Represents a gitlet commit object.
- *  does at a high level.
+ *  A commit is stored with a compact binary encoding (version 2):
+ *
+ *      version         1 byte
+ *      timestamp       8 bytes, epoch millis
+ *      zone offset     4 bytes, minutes east of UTC
+ *      parent count    1 byte
+ *      parents         20 raw bytes each
+ *      message         4-byte length + UTF-8 bytes
+ *      tree            20 raw bytes, the root Tree of the commit
+ *
+ *  New commits are stored under the SHA-1 of their encoding. The files of
+ *  a commit live in its tree, so unchanged directories are shared with
+ *  the parent and the flat blob map is only built when it is asked for.
+ *
+ *  Version 1 commits kept a flat blob map after the message instead of
+ *  the tree: (blob count, then 2-byte length + UTF-8 filename and 20 raw
+ *  bytes each, sorted by filename). They are still read, and their tree
+ *  is built the first time it is needed.
  *
  *  @author Jiehao Guan
  */
-public class Commit implements Serializable {
-    /**
-     *
-     * List all instance variables of the Commit class here with a useful
-     * comment above them describing what that variable represents and how that
-     * variable is used. We've provided one example for `message`.
-     */
+public class Commit {
+    /* The version of the encoding written by this class */
+    static final byte VERSION = 2;
+
+    /* The version that stored a flat blob map */
+    private static final byte FLAT_VERSION = 1;
+
+    /* The commit time in epoch millis and the zone offset it was made in */
+    private long timestamp;
+    private int zoneOffset;
 
-    private Date date;
-    private String time;
     private ArrayList<String> parents;
 
+    /* The id of the root tree, null until built for a flat commit */
+    private String tree;
+
     /* The map of the added files
      * the filename as the key
      * the sha1 ID as the value
+     * null until it is decoded
      */
     private Map<String, String> blobs;
+
+    /* The encoded flat commit and where its blob map starts */
+    private byte[] encoded;
+    private int blobsOffset;
+
     private String sha1ID;
 
     /** The message of this Commit. */
     private String message;
-    /* Saved commit file */
-    private File file;
 
     /* The init commit */
     public Commit() {
-        date = new Date(0);
-        time = dateToTimeStamp(date);
+        timestamp = 0;
+        zoneOffset = localZoneOffset(timestamp);
         message = "initial commit";
         parents = new ArrayList<>();
-        blobs = new HashMap<>();
+        tree = new Tree().write(Repository.OBJECT_STORE);
         sha1ID = this.generateId();
-        file = Utils.getObjFile(sha1ID);
     }
 
-    public Commit(String msg, ArrayList<String> p, Map<String, String> b) {
-        date = new Date();
-        time = dateToTimeStamp(date);
+    public Commit(String msg, ArrayList<String> p, String treeId) {
+        this(msg, p, treeId, System.currentTimeMillis(), null);
+    }
+
+    /* A commit made at TIME, in epoch millis, in the zone ZONEOFFSET
+     * minutes east of UTC, or in the local zone if ZONEOFFSET is null
+     */
+    public Commit(String msg, ArrayList<String> p, String treeId, long time, Integer zoneOffset) {
+        timestamp = time;
+        this.zoneOffset = zoneOffset == null ? localZoneOffset(time) : zoneOffset;
         message = msg;
         parents = p;
-        blobs = b;
+        tree = treeId;
         sha1ID = generateId();
-        file = Utils.getObjFile(sha1ID);
     }
 
+    /* A commit read back from the objects */
+    private Commit(String id) {
+        sha1ID = id;
+    }
+
+    /* A commit converted from an older format, keeping its id */
+    static Commit fromLegacy(String id, Date date, String time, String msg,
+                             List<String> p, Map<String, String> b) {
+        Commit commit = new Commit(id);
+        commit.timestamp = date.getTime();
+        commit.zoneOffset = parseZoneOffset(time);
+        commit.message = msg;
+        commit.parents = new ArrayList<>(p);
+        commit.blobs = Collections.unmodifiableMap(new TreeMap<>(b));
+        return commit;
+    }
+
+    /* Get the offset of the local time zone at TIME in minutes */
+    private static int localZoneOffset(long time) {
+        return TimeZone.getDefault().getOffset(time) / 60000;
+    }
+
+    /* Parse the trailing "+hhmm" of a formatted time into minutes */
+    private static int parseZoneOffset(String time) {
+        String zone = time.substring(time.length() - 5);
+        int minutes = Integer.parseInt(zone.substring(1, 3)) * 60
+                + Integer.parseInt(zone.substring(3, 5));
+        return zone.charAt(0) == '-' ? -minutes : minutes;
+    }
+
+    /* The format of commit times, one per thread as it is not thread safe,
+     * so printing a long log does not build a new one for every commit
+     */
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = ThreadLocal.withInitial(() -> {
+        DateFormat format = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+        format.setTimeZone(new SimpleTimeZone(0, ""));
+        return format;
+    });
+
     /* Change the date format to the required format */
-    private static String dateToTimeStamp(Date date) {
-        DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        return dateFormat.format(date);
+    private static String dateToTimeStamp(long timestamp, int zoneOffset) {
+        DateFormat dateFormat = DATE_FORMAT.get();
+        if (dateFormat.getTimeZone().getRawOffset() != zoneOffset * 60000) {
+            dateFormat.setTimeZone(new SimpleTimeZone(zoneOffset * 60000, ""));
+        }
+        return dateFormat.format(new Date(timestamp));
     }
 
     /* Generate the sha1 ID for the commit */
     private String generateId() {
-        return Utils.sha1(time, message, parents.toString(), blobs.toString());
+        return Utils.sha1(encode());
     }
 
     /* get the sha1 ID of the commit */
@@ -74,7 +149,12 @@ public class Commit implements Serializable {
 
     /* get the time of the commit */
     public String getTime() {
-        return time;
+        return dateToTimeStamp(timestamp, zoneOffset);
+    }
+
+    /* get the time of the commit in epoch millis */
+    public long getTimestamp() {
+        return timestamp;
     }
 
     /* get the msg of the commit */
@@ -89,18 +169,138 @@ public class Commit implements Serializable {
 
     /* save the commit to the objects folder */
     public void save() {
-        Utils.saveObj(file, this);
+        Repository.OBJECT_STORE.write(sha1ID, ObjectStore.COMMIT, encode());
+        CommitCache.getInstance().put(this);
+    }
+
+    /* get the id of the root tree, building it for a flat commit */
+    public synchronized String getTreeId() {
+        if (tree == null) {
+            tree = Tree.build(Repository.OBJECT_STORE, getBlobs());
+        }
+        return tree;
     }
 
-    public Map<String, String> getBlobs() {
+    /* check if the commit refers to a root tree rather than listing its
+     * files, as commits made before trees did
+     */
+    public synchronized boolean hasTree() {
+        return tree != null;
+    }
+
+    /* get the blob id of the file, or null if it is not in the commit */
+    public String getBlob(String filename) {
+        if (tree == null) {
+            return getBlobs().get(filename);
+        }
+        return Tree.lookup(Repository.OBJECT_STORE, tree, filename);
+    }
+
+    /* get every file of the commit as a map of filename to blob id
+     * the map is shared through the commit cache, so it cannot be changed
+     */
+    public synchronized Map<String, String> getBlobs() {
+        if (blobs == null) {
+            if (tree != null) {
+                blobs = Tree.flatten(Repository.OBJECT_STORE, tree);
+            } else {
+                blobs = decodeBlobs(ByteBuffer.wrap(encoded, blobsOffset,
+                        encoded.length - blobsOffset));
+                encoded = null;
+            }
+            blobs = Collections.unmodifiableMap(blobs);
+        }
         return blobs;
     }
 
-    /* get the i-th parent as a Commit class */
+    /* get the i-th parent as a Commit class, or null if there is none */
     public Commit getParent(int i) {
-        String id = this.getParents().get(i);
-        File parent = Utils.getObjFile(id);
-        return Utils.readObject(parent, Commit.class);
+        if (i >= parents.size()) {
+            return null;
+        }
+        return read(parents.get(i));
+    }
+
+    /* Read the commit with the id, decoding it only if it is not cached */
+    public static Commit read(String id) {
+        CommitCache cache = CommitCache.getInstance();
+        Commit commit = cache.get(id);
+        if (commit == null) {
+            commit = decode(id, Repository.OBJECT_STORE.read(id, ObjectStore.COMMIT));
+            cache.put(commit);
+        }
+        return commit;
+    }
+
+    /* Encode the commit, see the class comment for the layout */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeLong(timestamp);
+            out.writeInt(zoneOffset);
+            out.writeByte(parents.size());
+            for (String parent : parents) {
+                out.write(Utils.hexToBytes(parent));
+            }
+            byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(msg.length);
+            out.write(msg);
+            out.write(Utils.hexToBytes(getTreeId()));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+    }
+
+    /* Decode the commit ID from BYTES, leaving the blob map to be decoded
+     * when it is first needed
+     */
+    public static Commit decode(String id, byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = in.get();
+        if (version != VERSION && version != FLAT_VERSION) {
+            throw Utils.error("Unknown commit encoding %d for %s.", version, id);
+        }
+        Commit commit = new Commit(id);
+        commit.timestamp = in.getLong();
+        commit.zoneOffset = in.getInt();
+        int parentCount = in.get() & 0xff;
+        commit.parents = new ArrayList<>(parentCount);
+        for (int i = 0; i < parentCount; i += 1) {
+            commit.parents.add(readId(in));
+        }
+        byte[] msg = new byte[in.getInt()];
+        in.get(msg);
+        commit.message = new String(msg, StandardCharsets.UTF_8);
+        if (version == VERSION) {
+            commit.tree = readId(in);
+        } else {
+            commit.encoded = bytes;
+            commit.blobsOffset = in.position();
+        }
+        return commit;
+    }
+
+    /* Decode the sorted blob map */
+    private static Map<String, String> decodeBlobs(ByteBuffer in) {
+        int count = in.getInt();
+        Map<String, String> result = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            byte[] name = new byte[in.getShort() & 0xffff];
+            in.get(name);
+            result.put(new String(name, StandardCharsets.UTF_8), readId(in));
+        }
+        return result;
+    }
+
+    /* Read a raw 20-byte id as hex */
+    private static String readId(ByteBuffer in) {
+        byte[] id = new byte[PackFile.ID_SIZE];
+        in.get(id);
+        return Utils.bytesToHex(id, 0, id.length);
     }
 
 }
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded, least-recently-used cache of decoded commits, keyed by
+ *  commit id. Commits never change once written, so every code path that
+ *  reads a commit can share one decoded copy for the rest of the process.
+ *
+ *  The capacity defaults to DEFAULT_CAPACITY and can be changed with the
+ *  gitlet.commitCache system property. The hit and miss counters can be
+ *  printed after every command with -Dgitlet.stats=true.
+ *
+ *  @author Jiehao Guan
+ */
+public class CommitCache {
+    /* The number of commits kept when no capacity is configured */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /* The cache shared by the whole process */
+    private static final CommitCache INSTANCE =
+            new CommitCache(Integer.getInteger("gitlet.commitCache", DEFAULT_CAPACITY));
+
+    /* The cached commits, in access order */
+    private final LinkedHashMap<String, Commit> commits;
+
+    private long hits;
+    private long misses;
+
+    public CommitCache(int capacity) {
+        commits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /* Get the cache shared by the process */
+    public static CommitCache getInstance() {
+        return INSTANCE;
+    }
+
+    /* Get the cached commit ID, or null if it is not cached */
+    public synchronized Commit get(String id) {
+        Commit commit = commits.get(id);
+        if (commit == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return commit;
+    }
+
+    /* Cache the COMMIT */
+    public synchronized void put(Commit commit) {
+        commits.put(commit.getSha1ID(), commit);
+    }
+
+    /* Drop every cached commit */
+    public synchronized void clear() {
+        commits.clear();
+    }
+
+    /* Get the number of cached commits */
+    public synchronized int size() {
+        return commits.size();
+    }
+
+    /* Get the number of lookups that found the commit */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /* Get the number of lookups that did not find the commit */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("commit cache: %d hits, %d misses, %d cached",
+                hits, misses, commits.size());
+    }
+}
@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Represents the commit-graph file of a repository: the shape of the
+ *  history as int arrays, so ancestry questions can be answered without
+ *  reading any Commit.
+ *
+ *  Every commit has a position. Positions are handed out in the order
+ *  commits are added, and a commit is only added after its parents, so
+ *  positions never change and the file only ever grows. For each
+ *  position the graph keeps the commit id, the positions of its (at most
+ *  two) parents, its generation number (1 for a root, otherwise one more
+ *  than the largest generation of its parents) and its timestamp.
+ *
+ *  File layout:  "CGPH" | version | count
+ *                | (20-byte id | parent 1 | parent 2 | generation
+ *                   | 8-byte timestamp)[count]
+ *  A missing parent is stored as -1.
+ *
+ *  Commits that are not in the graph yet, for example in repositories
+ *  made before the graph existed, are added the first time they are
+ *  looked up.
+ *
+ *  @author Jiehao Guan
+ */
+public class CommitGraph {
+    static final int MAGIC = 0x43475048; /* "CGPH" */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int RECORD_SIZE = PackFile.ID_SIZE + 4 + 4 + 4 + 8;
+
+    /* The position of a missing parent */
+    static final int NONE = -1;
+
+    /* The graph file */
+    private final File file;
+
+    /* The commits of the graph, indexed by position */
+    private byte[] ids = new byte[0];
+    private int[] parent1 = new int[0];
+    private int[] parent2 = new int[0];
+    private int[] generation = new int[0];
+    private long[] timestamp = new long[0];
+    private int count;
+
+    /* The number of commits already in the file */
+    private int saved;
+
+    /* The position of each commit id, keyed by the raw id so loading the
+     * graph never builds a hex string
+     */
+    private final Map<ObjectId, Integer> positions = new HashMap<>();
+
+    /* The modification time and length of the file when this graph last
+     * read or wrote it, or null if there was no file
+     */
+    private FileTime stampTime;
+    private long stampLength;
+
+    private CommitGraph(File file) {
+        this.file = file;
+    }
+
+    /* Remember the modification time and length the file has now */
+    private void stamp() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            stampTime = attrs.lastModifiedTime();
+            stampLength = attrs.size();
+        } catch (IOException excp) {
+            stampTime = null;
+        }
+    }
+
+    /* Check if no other process changed the file since this graph last
+     * read or wrote it
+     */
+    public boolean isCurrent() {
+        FileTime time = stampTime;
+        long length = stampLength;
+        stamp();
+        return stampTime == null ? time == null
+                : stampTime.equals(time) && stampLength == length;
+    }
+
+    /* Read the graph FILE, or start an empty one if it does not exist */
+    public static CommitGraph load(File file) {
+        CommitGraph graph = new CommitGraph(file);
+        graph.stamp();
+        if (!file.isFile()) {
+            return graph;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw Utils.error("Corrupt commit graph.");
+        }
+        int n = in.getInt();
+        graph.grow(n);
+        byte[] id = new byte[PackFile.ID_SIZE];
+        for (int i = 0; i < n; i += 1) {
+            in.get(id);
+            graph.append(ObjectId.fromBytes(id, 0), in.getInt(), in.getInt(),
+                    in.getInt(), in.getLong());
+        }
+        graph.saved = n;
+        return graph;
+    }
+
+    /* Get the number of commits in the graph */
+    public int size() {
+        return count;
+    }
+
+    /* Get the id of the commit at POS */
+    public String getId(int pos) {
+        return Utils.bytesToHex(ids, pos * PackFile.ID_SIZE, PackFile.ID_SIZE);
+    }
+
+    /* Get the position of the first or second parent of POS, or NONE */
+    public int getParent(int pos, int i) {
+        return i == 0 ? parent1[pos] : parent2[pos];
+    }
+
+    /* Get the generation number of POS */
+    public int getGeneration(int pos) {
+        return generation[pos];
+    }
+
+    /* Get the timestamp of POS in epoch millis */
+    public long getTimestamp(int pos) {
+        return timestamp[pos];
+    }
+
+    /* Get the position of the commit ID, adding it and any of its
+     * ancestors that are missing from the graph
+     */
+    public int position(String id) {
+        Integer pos = positions.get(ObjectId.fromHex(id));
+        if (pos != null) {
+            return pos;
+        }
+
+        /* Add the missing ancestors first, without recursion */
+        Deque<Commit> stack = new ArrayDeque<>();
+        stack.push(Commit.read(id));
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            boolean ready = true;
+            for (String parent : commit.getParents()) {
+                if (!positions.containsKey(ObjectId.fromHex(parent))) {
+                    stack.push(Commit.read(parent));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                if (!positions.containsKey(ObjectId.fromHex(commit.getSha1ID()))) {
+                    add(commit);
+                }
+            }
+        }
+        return positions.get(ObjectId.fromHex(id));
+    }
+
+    /* Add COMMIT, whose parents must already be in the graph */
+    private void add(Commit commit) {
+        List<String> parents = commit.getParents();
+        int p1 = parents.size() > 0 ? positions.get(ObjectId.fromHex(parents.get(0))) : NONE;
+        int p2 = parents.size() > 1 ? positions.get(ObjectId.fromHex(parents.get(1))) : NONE;
+        int gen = 1 + Math.max(p1 == NONE ? 0 : generation[p1], p2 == NONE ? 0 : generation[p2]);
+        grow(count + 1);
+        append(ObjectId.fromHex(commit.getSha1ID()), p1, p2, gen, commit.getTimestamp());
+    }
+
+    /* Store one commit at the next position */
+    private void append(ObjectId id, int p1, int p2, int gen, long time) {
+        id.copyTo(ids, count * PackFile.ID_SIZE);
+        parent1[count] = p1;
+        parent2[count] = p2;
+        generation[count] = gen;
+        timestamp[count] = time;
+        positions.put(id, count);
+        count += 1;
+    }
+
+    /* Make room for at least N commits */
+    private void grow(int n) {
+        if (n <= parent1.length) {
+            return;
+        }
+        int capacity = Math.max(n, parent1.length * 2);
+        ids = Arrays.copyOf(ids, capacity * PackFile.ID_SIZE);
+        parent1 = Arrays.copyOf(parent1, capacity);
+        parent2 = Arrays.copyOf(parent2, capacity);
+        generation = Arrays.copyOf(generation, capacity);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+    }
+
+    /* Append the commits added since the last save to the file */
+    public void save() {
+        if (saved == count) {
+            return;
+        }
+        try {
+            if (!file.isFile()) {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(0);
+                }
+            }
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                ByteBuffer records = ByteBuffer.allocate((count - saved) * RECORD_SIZE);
+                for (int i = saved; i < count; i += 1) {
+                    records.put(ids, i * PackFile.ID_SIZE, PackFile.ID_SIZE);
+                    records.putInt(parent1[i]).putInt(parent2[i]).putInt(generation[i]);
+                    records.putLong(timestamp[i]);
+                }
+                out.seek(HEADER_SIZE + (long) saved * RECORD_SIZE);
+                out.write(records.array());
+                /* The count goes last, so a crash never exposes half a record */
+                out.seek(8);
+                out.writeInt(count);
+            }
+            saved = count;
+            stamp();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Find the latest common ancestor of the commits at A and B, or NONE.
+     * Commits are visited from the highest generation down, so a commit is
+     * only visited after all of its children and the first one reachable
+     * from both sides cannot be an ancestor of another common ancestor.
+     * Nothing below that generation is ever looked at.
+     */
+    public int mergeBase(int a, int b) {
+        byte[] flags = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (x, y) -> generation[y] != generation[x]
+                        ? Integer.compare(generation[y], generation[x]) : Integer.compare(y, x));
+        flags[a] |= 1;
+        flags[b] |= 2;
+        queue.add(a);
+        if (b != a) {
+            queue.add(b);
+        }
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (flags[pos] == 3) {
+                return pos;
+            }
+            for (int parent : new int[] {parent1[pos], parent2[pos]}) {
+                if (parent == NONE) {
+                    continue;
+                }
+                if (flags[parent] == 0) {
+                    queue.add(parent);
+                }
+                flags[parent] |= flags[pos];
+            }
+        }
+        return NONE;
+    }
+}
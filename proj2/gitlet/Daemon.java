@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.exitWithError;
+
+/** Runs gitlet commands for clients over a Unix domain socket, so a script
+ *  running thousands of commands starts the JVM, loads the classes and
+ *  warms up the JIT once instead of for every command.
+ *
+ *  Between commands the daemon keeps the commit cache, the commit graph
+ *  and packed-refs. HEAD, the loose refs and the staging area are small
+ *  and are read again by every command, as they would be by a new
+ *  process, and the cached graph, packed-refs and list of packs are
+ *  dropped whenever another process changed them (see Repository.refresh),
+ *  so the daemon and plain invocations can be mixed.
+ *
+ *  The daemon serves the repository of the directory it is started in,
+ *  on the socket .gitlet/daemon.sock, one command at a time, since the
+ *  commands share the process. A request is, in UTF-8,
+ *      COUNT NUL CWD NUL ARG1 NUL ... ARGCOUNT NUL
+ *  where CWD is the working directory of the client, which must be the
+ *  daemon's. The answer is everything the command prints, followed by
+ *      NUL STATUS
+ *  where STATUS is one byte, the exit status java gitlet.Main would have
+ *  had, and then the daemon closes the connection. batch and daemon are
+ *  not run, since they would read the daemon's input or serve inside it.
+ *  Scripts can speak this directly; Client is a thin client that runs the
+ *  command itself if no daemon listens.
+ *
+ *      java gitlet.Main daemon          serve until stopped
+ *      java gitlet.Main daemon --stop   stop the daemon of this repository
+ *
+ *  @author Jiehao Guan
+ */
+public class Daemon {
+    /* The name of the socket in the .gitlet directory */
+    static final String SOCKET_NAME = "daemon.sock";
+
+    /* The arguments of the request that stops the daemon */
+    static final String[] STOP = {"daemon", "--stop"};
+
+    /* The size of the buffer of the answer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Get the socket of the repository in DIR */
+    static Path socketPath(File dir) {
+        return Utils.join(dir, ".gitlet", SOCKET_NAME).toPath();
+    }
+
+    /* Serve commands until a client asks to stop */
+    public static void serve() {
+        File cwd = new File(System.getProperty("user.dir"));
+        if (!Utils.join(cwd, ".gitlet").isDirectory()) {
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        Path socket = socketPath(cwd);
+        if (isListening(socket)) {
+            exitWithError("A gitlet daemon is already running.");
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            /* a socket nobody listens on is left from a daemon that was killed */
+            Files.deleteIfExists(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Thread cleanup = new Thread(() -> socket.toFile().delete());
+            Runtime.getRuntime().addShutdownHook(cleanup);
+            try {
+                while (true) {
+                    SocketChannel client = server.accept();
+                    try (client) {
+                        if (!handle(client, cwd)) {
+                            break;
+                        }
+                    } catch (IOException excp) {
+                        /* the client went away */
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(socket);
+                Runtime.getRuntime().removeShutdownHook(cleanup);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot serve on %s: %s", socket, excp.getMessage());
+        }
+    }
+
+    /* Ask the daemon of the working directory to stop */
+    public static void stop() {
+        if (Client.request(STOP) < 0) {
+            exitWithError("No gitlet daemon is running.");
+        }
+    }
+
+    /* Check if a daemon listens on SOCKET */
+    private static boolean isListening(Path socket) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return channel.isConnected();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /* Answer the request of CLIENT. Returns false if it asked the daemon
+     * to stop.
+     */
+    private static boolean handle(SocketChannel client, File cwd) throws IOException {
+        List<String> request = readRequest(client);
+        if (request == null) {
+            return true;
+        }
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(client), BUFFER_SIZE);
+        PrintStream print = new PrintStream(out, false);
+        String[] args = request.subList(1, request.size()).toArray(new String[0]);
+        int status = 1;
+        if (!new File(request.get(0)).getCanonicalFile().equals(cwd.getCanonicalFile())) {
+            print.println("The gitlet daemon serves " + cwd + ".");
+        } else if (Arrays.equals(args, STOP)) {
+            print.println("Stopped the gitlet daemon.");
+            finish(print, 0);
+            return false;
+        } else if (args.length > 0 && (args[0].equals("batch") || args[0].equals("daemon"))) {
+            print.println("Cannot run " + args[0] + " in the daemon.");
+        } else {
+            status = run(args, out, print);
+        }
+        finish(print, status);
+        return true;
+    }
+
+    /* End the answer on PRINT with the exit STATUS */
+    private static void finish(PrintStream print, int status) {
+        print.write(0);
+        print.write(status);
+        print.flush();
+    }
+
+    /* Run the command ARGS with everything it prints going to OUT, which
+     * PRINT prints to. Returns the exit status.
+     */
+    private static int run(String[] args, OutputStream out, PrintStream print) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        OutputStream output = Utils.output();
+        System.setOut(print);
+        System.setErr(print);
+        Utils.setOutput(out);
+        try {
+            Main.runInProcess(args);
+            return 0;
+        } catch (RuntimeException excp) {
+            excp.printStackTrace(print);
+            return 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            Utils.setOutput(output);
+        }
+    }
+
+    /* Read the request of CLIENT as the working directory followed by the
+     * arguments, or null if it is cut short or malformed
+     */
+    private static List<String> readRequest(SocketChannel client) throws IOException {
+        List<String> fields = new ArrayList<>();
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        int count = -1;
+        while (client.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b != 0) {
+                    field.write(b);
+                    continue;
+                }
+                String value = field.toString(StandardCharsets.UTF_8);
+                field.reset();
+                if (count < 0) {
+                    try {
+                        count = Integer.parseInt(value);
+                    } catch (NumberFormatException excp) {
+                        return null;
+                    }
+                    if (count < 0) {
+                        return null;
+                    }
+                } else {
+                    fields.add(value);
+                }
+                if (fields.size() == count + 1) {
+                    return fields;
+                }
+            }
+            buffer.clear();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+package gitlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/** Tests of the answers of Daemon and of the exit status Client passes
+ *  on, with a daemon running in its own process.
+ *  @author Jiehao Guan
+ */
+public class DaemonTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private Process daemon;
+
+    /* What a finished client wrote and its exit status */
+    private static class Result {
+        final String out;
+        final int status;
+
+        Result(String out, int status) {
+            this.out = out;
+            this.status = status;
+        }
+    }
+
+    /* Start java MAINCLASS ARGS in the repository */
+    private Process start(String mainClass, String... args) throws IOException {
+        String[] command = new String[4 + args.length];
+        command[0] = new File(System.getProperty("java.home"), "bin/java").getPath();
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = mainClass;
+        System.arraycopy(args, 0, command, 4, args.length);
+        return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    }
+
+    /* Run java gitlet.Client ARGS in the repository */
+    private Result client(String... args) throws IOException, InterruptedException {
+        Process process = start("gitlet.Client", args);
+        String out = new String(process.getInputStream().readAllBytes());
+        return new Result(out, process.waitFor());
+    }
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        dir = folder.newFolder("repo");
+        assertEquals(0, start("gitlet.Main", "init").waitFor());
+        daemon = start("gitlet.Main", "daemon");
+        Path socket = Daemon.socketPath(dir);
+        for (int i = 0; i < 200 && !socket.toFile().exists(); i += 1) {
+            Thread.sleep(50);
+        }
+        assertTrue("the daemon did not start", socket.toFile().exists());
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        if (daemon.isAlive()) {
+            client(Daemon.STOP);
+            daemon.waitFor();
+        }
+    }
+
+    @Test
+    /** batch and daemon are refused with status 1, and the daemon goes on */
+    public void nestedCommandsAreRefused() throws IOException, InterruptedException {
+        Utils.writeContents(new File(dir, "script.txt"), "rm nothing\n");
+        Result batch = client("batch", "script.txt");
+        assertEquals("Cannot run batch in the daemon.\n", batch.out);
+        assertEquals(1, batch.status);
+
+        Result nested = client("daemon");
+        assertEquals("Cannot run daemon in the daemon.\n", nested.out);
+        assertEquals(1, nested.status);
+
+        assertTrue(daemon.isAlive());
+        assertTrue(Daemon.socketPath(dir).toFile().exists());
+    }
+
+    @Test
+    /** The client prints the answer without its trailer and exits as
+     *  java gitlet.Main would */
+    public void statusIsPassedOn() throws IOException, InterruptedException {
+        Result status = client("status");
+        assertEquals("=== Branches ===\n*master\n=== Staged Files ===\n"
+                + "=== Removed Files ===\n=== Modifications Not Staged For Commit ===\n"
+                + "=== Untracked Files ===\n", status.out);
+        assertEquals(0, status.status);
+
+        Result error = client("rm", "nothing");
+        assertEquals("No reason to remove the file.\n", error.out);
+        assertEquals(0, error.status);
+
+        Result stop = client(Daemon.STOP);
+        assertEquals("Stopped the gitlet daemon.\n", stop.out);
+        assertEquals(0, stop.status);
+        assertEquals(0, daemon.waitFor());
+    }
+}
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Creates and applies binary deltas: a description of one byte array
+ *  (the target) as pieces copied from another (the base) plus literal
+ *  inserts. Repack stores similar objects as a delta against each other.
+ *
+ *  Encoding, as in git: the base size and the target size as varints,
+ *  then a sequence of instructions.
+ *    copy:   1xxxxxxx, then the offset bytes (bits 0-3 of the first byte
+ *            say which of the 4 little-endian bytes are present) and the
+ *            size bytes (bits 4-6, 3 bytes). Zero bytes are left out.
+ *    insert: 0nnnnnnn with 0 < n < 128, then the n literal bytes.
+ *
+ *  The base is indexed in BLOCK-byte blocks by a rolling hash. The target
+ *  is scanned one byte at a time, and a block that hashes to a block of
+ *  the base is extended forwards and backwards into the longest match.
+ *
+ *  @author Jiehao Guan
+ */
+public class Delta {
+    /* The size of the indexed blocks, and the shortest copy */
+    static final int BLOCK = 16;
+
+    /* The multiplier of the rolling hash */
+    private static final int PRIME = 0x01000193;
+
+    /* The largest literal run of one insert instruction */
+    private static final int MAX_INSERT = 0x7f;
+
+    /* The largest size of one copy instruction */
+    private static final int MAX_COPY = 0xffffff;
+
+    /* The longest header: two varints of at most 10 bytes */
+    static final int HEADER_MAX = 20;
+
+    /* The number of candidates checked for each hash */
+    private static final int MAX_CHAIN = 64;
+
+    /* PRIME to the power BLOCK - 1, to roll the first byte out */
+    private static final int OUT_FACTOR;
+
+    static {
+        int factor = 1;
+        for (int i = 0; i < BLOCK - 1; i += 1) {
+            factor *= PRIME;
+        }
+        OUT_FACTOR = factor;
+    }
+
+    /* Compute the delta that turns BASE into TARGET. Returns null if the
+     * delta would be larger than MAXSIZE bytes, or if BASE is too short
+     * to be of use.
+     */
+    public static byte[] create(byte[] base, byte[] target, int maxSize) {
+        if (base.length < BLOCK || target.length < BLOCK || maxSize <= 0) {
+            return null;
+        }
+
+        /* Index the blocks of the base, later blocks first in each chain */
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(blocks, 1) * 2) - 1;
+        int[] heads = new int[mask + 1];
+        int[] next = new int[blocks];
+        Arrays.fill(heads, -1);
+        for (int b = 0; b < blocks; b += 1) {
+            int slot = slot(hash(base, b * BLOCK), mask);
+            next[b] = heads[slot];
+            heads[slot] = b;
+        }
+
+        Output out = new Output();
+        out.varint(base.length);
+        out.varint(target.length);
+
+        int insertStart = 0;
+        int pos = 0;
+        int h = hash(target, 0);
+        while (pos + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int chain = 0;
+            for (int b = heads[slot(h, mask)]; b >= 0 && chain < MAX_CHAIN; b = next[b]) {
+                chain += 1;
+                int offset = b * BLOCK;
+                int length = matchLength(base, offset, target, pos);
+                if (length > bestLength) {
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+
+            if (bestLength < BLOCK) {
+                if (pos + BLOCK < target.length) {
+                    h = (h - (target[pos] & 0xff) * OUT_FACTOR) * PRIME
+                            + (target[pos + BLOCK] & 0xff);
+                }
+                pos += 1;
+                continue;
+            }
+
+            /* Take back bytes that were about to be inserted, but never
+             * more than one copy can hold
+             */
+            while (bestOffset > 0 && pos > insertStart && bestLength < MAX_COPY
+                    && base[bestOffset - 1] == target[pos - 1]) {
+                bestOffset -= 1;
+                pos -= 1;
+                bestLength += 1;
+            }
+            out.insert(target, insertStart, pos);
+            out.copy(bestOffset, bestLength);
+            if (out.size() > maxSize) {
+                return null;
+            }
+            pos += bestLength;
+            insertStart = pos;
+            if (pos + BLOCK <= target.length) {
+                h = hash(target, pos);
+            }
+        }
+        out.insert(target, insertStart, target.length);
+        return out.size() > maxSize ? null : out.toByteArray();
+    }
+
+    /* Rebuild the target from BASE and DELTA */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        long baseSize = readVarint(delta, pos);
+        long resultSize = readVarint(delta, pos);
+        if (baseSize != base.length || resultSize > Integer.MAX_VALUE) {
+            throw Utils.error("Corrupt delta: base size mismatch.");
+        }
+        byte[] result = new byte[(int) resultSize];
+        int written = 0;
+        int i = pos[0];
+        while (i < delta.length) {
+            int op = delta[i++] & 0xff;
+            if ((op & 0x80) != 0) {
+                long offset = 0;
+                int size = 0;
+                for (int k = 0; k < 4; k += 1) {
+                    if ((op & (1 << k)) != 0) {
+                        offset |= (long) (delta[i++] & 0xff) << (8 * k);
+                    }
+                }
+                for (int k = 0; k < 3; k += 1) {
+                    if ((op & (0x10 << k)) != 0) {
+                        size |= (delta[i++] & 0xff) << (8 * k);
+                    }
+                }
+                if (size == 0) {
+                    size = 0x10000;
+                }
+                if (offset + size > base.length || written + size > result.length) {
+                    throw Utils.error("Corrupt delta: copy out of range.");
+                }
+                System.arraycopy(base, (int) offset, result, written, size);
+                written += size;
+            } else if (op != 0) {
+                if (i + op > delta.length || written + op > result.length) {
+                    throw Utils.error("Corrupt delta: insert out of range.");
+                }
+                System.arraycopy(delta, i, result, written, op);
+                i += op;
+                written += op;
+            } else {
+                throw Utils.error("Corrupt delta: unknown instruction.");
+            }
+        }
+        if (written != result.length) {
+            throw Utils.error("Corrupt delta: result size mismatch.");
+        }
+        return result;
+    }
+
+    /* Hash the BLOCK bytes of DATA starting at OFFSET */
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            h = h * PRIME + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    /* Get the table slot of the hash H, mixing the high bits in */
+    private static int slot(int h, int mask) {
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /* Get the number of equal bytes of BASE from B and TARGET from T */
+    private static int matchLength(byte[] base, int b, byte[] target, int t) {
+        int limit = Math.min(Math.min(base.length - b, target.length - t), MAX_COPY);
+        int length = 0;
+        while (length < limit && base[b + length] == target[t + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    /* Get the size of the target of DELTA, of which only the header, the
+     * first HEADER_MAX bytes, is needed
+     */
+    static long targetSize(byte[] delta) {
+        int[] pos = {0};
+        readVarint(delta, pos);
+        return readVarint(delta, pos);
+    }
+
+    /* Read a varint of DATA at POS[0], advancing POS[0] past it */
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= data.length) {
+                throw Utils.error("Corrupt delta: truncated header.");
+            }
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /* The instructions of a delta being built */
+    private static class Output extends ByteArrayOutputStream {
+        /* Append VALUE as a varint */
+        void varint(long value) {
+            while (value >= 0x80) {
+                write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        /* Append the bytes of DATA from START to END as inserts */
+        void insert(byte[] data, int start, int end) {
+            while (start < end) {
+                int n = Math.min(MAX_INSERT, end - start);
+                write(n);
+                write(data, start, n);
+                start += n;
+            }
+        }
+
+        /* Append a copy of SIZE bytes of the base from OFFSET */
+        void copy(long offset, int size) {
+            int op = 0x80;
+            int mark = count;
+            write(0);
+            for (int k = 0; k < 4; k += 1) {
+                int b = (int) (offset >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    op |= 1 << k;
+                    write(b);
+                }
+            }
+            for (int k = 0; k < 3; k += 1) {
+                int b = (size >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    op |= 0x10 << k;
+                    write(b);
+                }
+            }
+            buf[mark] = (byte) op;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A least-recently-used cache of the inflated objects that deltas were
+ *  applied to, keyed by object id. The versions of a file are packed as a
+ *  chain of deltas, so reading several of them, as checking out a few
+ *  commits in a row does, would otherwise rebuild the same bases again
+ *  and again.
+ *
+ *  The cache is bounded by the total size of the cached objects, which
+ *  defaults to DEFAULT_LIMIT bytes and can be changed with the
+ *  gitlet.deltaBaseCache system property.
+ *
+ *  @author Jiehao Guan
+ */
+public class DeltaBaseCache {
+    /* The number of bytes kept when no limit is configured */
+    static final long DEFAULT_LIMIT = 32L * 1024 * 1024;
+
+    /* The cached objects, in access order */
+    private final LinkedHashMap<String, byte[]> objects = new LinkedHashMap<>(16, 0.75f, true);
+
+    /* The largest total size of the cached objects */
+    private final long limit;
+
+    /* The total size of the cached objects */
+    private long size;
+
+    public DeltaBaseCache(long limit) {
+        this.limit = limit;
+    }
+
+    public DeltaBaseCache() {
+        this(Long.getLong("gitlet.deltaBaseCache", DEFAULT_LIMIT));
+    }
+
+    /* Get the cached object ID, or null if it is not cached */
+    public synchronized byte[] get(String id) {
+        return objects.get(id);
+    }
+
+    /* Cache the object ID with its inflated bytes RAW, evicting the least
+     * recently used objects to stay under the limit
+     */
+    public synchronized void put(String id, byte[] raw) {
+        if (raw.length > limit) {
+            return;
+        }
+        byte[] old = objects.put(id, raw);
+        size += raw.length - (old == null ? 0 : old.length);
+        Iterator<Map.Entry<String, byte[]>> eldest = objects.entrySet().iterator();
+        while (size > limit && eldest.hasNext()) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /* Drop every cached object */
+    public synchronized void clear() {
+        objects.clear();
+        size = 0;
+    }
+}
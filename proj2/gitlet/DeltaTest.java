@@ -0,0 +1,124 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Round trips of the binary deltas, Delta.
+ *  @author Jiehao Guan
+ */
+public class DeltaTest {
+    /* Get N random bytes */
+    private static byte[] random(Random random, int n) {
+        byte[] data = new byte[n];
+        random.nextBytes(data);
+        return data;
+    }
+
+    /* Get the pieces joined into one array */
+    private static byte[] concat(byte[]... pieces) {
+        int length = 0;
+        for (byte[] piece : pieces) {
+            length += piece.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] piece : pieces) {
+            System.arraycopy(piece, 0, result, pos, piece.length);
+            pos += piece.length;
+        }
+        return result;
+    }
+
+    /* Create the delta from BASE to TARGET, check it rebuilds TARGET and
+     * return it
+     */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target, Integer.MAX_VALUE);
+        assertNotNull(delta);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    @Test
+    /** No delta is made against an empty base, or of an empty target */
+    public void emptyInputHasNoDelta() {
+        byte[] data = "some text longer than one block".getBytes(StandardCharsets.UTF_8);
+        assertNull(Delta.create(new byte[0], data, Integer.MAX_VALUE));
+        assertNull(Delta.create(data, new byte[0], Integer.MAX_VALUE));
+        assertNull(Delta.create(new byte[0], new byte[0], Integer.MAX_VALUE));
+    }
+
+    @Test
+    /** A delta of inserts only applies to an empty base */
+    public void insertsApplyToEmptyBase() {
+        byte[] delta = {0, 3, 3, 'a', 'b', 'c'};
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), Delta.apply(new byte[0], delta));
+        assertArrayEquals(new byte[0], Delta.apply(new byte[0], new byte[] {0, 0}));
+    }
+
+    @Test
+    /** Identical input is one copy */
+    public void identicalInputIsOneCopy() {
+        byte[] data = random(new Random(1), 100000);
+        byte[] delta = roundTrip(data, data);
+        assertTrue("delta of " + delta.length + " bytes", delta.length <= 16);
+    }
+
+    @Test
+    /** Completely different input is all inserts, so its delta is larger
+     *  than the target and is refused under any smaller limit */
+    public void differentInputIsInserted() {
+        Random random = new Random(2);
+        byte[] base = random(random, 5000);
+        byte[] target = random(random, 5000);
+        byte[] delta = roundTrip(base, target);
+        assertTrue(delta.length > target.length);
+        assertNull(Delta.create(base, target, target.length));
+    }
+
+    @Test
+    /** Edits between long runs of the base round-trip */
+    public void editsRoundTrip() {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 200; trial += 1) {
+            byte[] base = random(random, 16 + random.nextInt(4000));
+            byte[] target = base.clone();
+            for (int edit = random.nextInt(10); edit > 0; edit -= 1) {
+                int at = random.nextInt(target.length + 1);
+                byte[] inserted = random(random, random.nextInt(300));
+                int cut = Math.min(random.nextInt(300), target.length - at);
+                target = concat(Arrays.copyOfRange(target, 0, at), inserted,
+                        Arrays.copyOfRange(target, at + cut, target.length));
+            }
+            if (target.length >= Delta.BLOCK) {
+                roundTrip(base, target);
+            }
+        }
+    }
+
+    @Test
+    /** Copies from offsets past 16M need all four offset bytes */
+    public void largeCopyOffsets() {
+        Random random = new Random(4);
+        byte[] head = random(random, (1 << 24) + 5);
+        byte[] tail = random(random, 70000);
+        byte[] base = concat(head, tail);
+        byte[] target = concat(tail, "new".getBytes(StandardCharsets.UTF_8), head);
+        byte[] delta = roundTrip(base, target);
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 100);
+    }
+
+    @Test
+    /** Matches longer than one copy instruction are split, also where a
+     *  match is extended backwards over the end of the previous copy */
+    public void longMatchesAreSplit() {
+        byte[] data = random(new Random(5), 2 * 0xffffff + 100);
+        byte[] delta = roundTrip(data, data);
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 100);
+    }
+}
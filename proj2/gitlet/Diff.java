@@ -0,0 +1,404 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Computes the line differences between two files with Myers' O(ND)
+ *  algorithm, in its linear space form: instead of keeping the furthest
+ *  reaching paths of every edit distance, each step searches forwards
+ *  from the start and backwards from the end at once until the two meet
+ *  in the "middle snake", and then splits the problem in two there. The
+ *  memory used is linear in the length of the files however different
+ *  they are.
+ *
+ *  The lines are compared as ints: each distinct line is given an id
+ *  when the file is split, so no line is compared byte by byte twice.
+ *  Common leading and trailing lines are stripped before each search, and
+ *  a line that is nowhere in the other file is marked changed before the
+ *  first one, as it cannot be part of any match. A rewritten region then
+ *  costs no search at all.
+ *
+ *  A search that passes maxCost edits without meeting stops at the
+ *  furthest point it reached, so two large files with little in common
+ *  cannot take quadratic time. The result is then still a correct diff,
+ *  only maybe not the shortest. As in git, maxCost is the square root of
+ *  the total number of lines, but at least MIN_COST; the gitlet.diffCost
+ *  property sets it instead.
+ *
+ *  @author Jiehao Guan
+ */
+public class Diff {
+    /* The least number of edits one search looks at before giving up */
+    static final int MIN_COST = 256;
+
+    /* The number of edits set by the gitlet.diffCost property, or 0 */
+    private static final int COST = Integer.getInteger("gitlet.diffCost", 0);
+
+    /* Gives each distinct line an id, the ids counting up from 0. An open
+     * addressing table over the lines already seen, which compares the
+     * bytes in place instead of making an object per line.
+     */
+    public static class LineTable {
+        /* Slot to id + 1, 0 for an empty slot */
+        private int[] slots = new int[1024];
+
+        /* The bytes, range and hash of the first line seen with each id */
+        private byte[][] lineData = new byte[512][];
+        private int[] lineStart = new int[512];
+        private int[] lineEnd = new int[512];
+        private int[] lineHash = new int[512];
+        private int size;
+
+        /* Get the id of the line of DATA from START to END */
+        public int id(byte[] data, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            int mask = slots.length - 1;
+            for (int slot = slot(h, mask); ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    slots[slot] = add(data, start, end, h) + 1;
+                    if (size * 2 > slots.length) {
+                        rehash();
+                    }
+                    return size - 1;
+                }
+                if (lineHash[id] == h && Arrays.equals(lineData[id], lineStart[id],
+                        lineEnd[id], data, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        /* Record a new line, returning its id */
+        private int add(byte[] data, int start, int end, int h) {
+            if (size == lineHash.length) {
+                int capacity = size * 2;
+                lineData = Arrays.copyOf(lineData, capacity);
+                lineStart = Arrays.copyOf(lineStart, capacity);
+                lineEnd = Arrays.copyOf(lineEnd, capacity);
+                lineHash = Arrays.copyOf(lineHash, capacity);
+            }
+            lineData[size] = data;
+            lineStart[size] = start;
+            lineEnd[size] = end;
+            lineHash[size] = h;
+            size += 1;
+            return size - 1;
+        }
+
+        /* Double the table */
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id += 1) {
+                int slot = slot(lineHash[id], mask);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id + 1;
+            }
+        }
+
+        private static int slot(int h, int mask) {
+            return ((h ^ (h >>> 16)) * 0x9e3779b9) >>> 8 & mask;
+        }
+    }
+
+    /* The lines of a file: the bytes, where each line starts, and the id
+     * of each line. A line includes its '\n', and the last line of a
+     * file that does not end in one is a line too.
+     */
+    public static class Lines {
+        final byte[] data;
+        final int[] starts;
+        final int[] ids;
+
+        /* Split DATA into lines, equal lines getting the same id from IDS */
+        public Lines(byte[] data, LineTable lineIds) {
+            this.data = data;
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            ids = new int[count];
+            int line = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[line + 1] = i + 1;
+                    ids[line] = lineIds.id(data, starts[line], i + 1);
+                    line += 1;
+                }
+            }
+        }
+
+        /* Get the number of lines */
+        public int size() {
+            return ids.length;
+        }
+
+        /* Check if the last line ends in '\n', or there are no lines */
+        public boolean endsWithNewline() {
+            return data.length == 0 || data[data.length - 1] == '\n';
+        }
+    }
+
+    /* A change: the lines of A from aStart to aEnd are replaced by the
+     * lines of B from bStart to bEnd. Either range may be empty.
+     */
+    public static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    private final int[] a;
+    private final int[] b;
+
+    /* Whether each line of A was deleted and each line of B inserted */
+    private final boolean[] changedA;
+    private final boolean[] changedB;
+
+    /* The most edits one search looks at before giving up */
+    private final int maxCost;
+
+    /* The furthest reaching paths of the two searches, by diagonal */
+    private final int[] forward;
+    private final int[] backward;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        changedA = new boolean[a.length];
+        changedB = new boolean[b.length];
+        maxCost = COST > 0 ? COST
+                : Math.max(MIN_COST, (int) Math.sqrt(a.length + b.length));
+        int size = 2 * ((a.length + b.length + 1) / 2) + 2;
+        forward = new int[size];
+        backward = new int[size];
+    }
+
+    /* Get the changes that turn the lines A into the lines B, in order */
+    public static List<Hunk> diff(int[] a, int[] b) {
+        int[] keptA = keep(a, b);
+        int[] keptB = keep(b, a);
+        Diff diff = new Diff(select(a, keptA), select(b, keptB));
+        diff.compare(0, keptA.length, 0, keptB.length);
+
+        boolean[] changedA = new boolean[a.length];
+        boolean[] changedB = new boolean[b.length];
+        Arrays.fill(changedA, true);
+        Arrays.fill(changedB, true);
+        for (int i = 0; i < keptA.length; i += 1) {
+            changedA[keptA[i]] = diff.changedA[i];
+        }
+        for (int j = 0; j < keptB.length; j += 1) {
+            changedB[keptB[j]] = diff.changedB[j];
+        }
+        return hunks(changedA, changedB);
+    }
+
+    /* Get the indices of the lines of A that are also in B */
+    private static int[] keep(int[] a, int[] b) {
+        Set<Integer> inB = new HashSet<>();
+        for (int line : b) {
+            inB.add(line);
+        }
+        int[] result = new int[a.length];
+        int count = 0;
+        for (int i = 0; i < a.length; i += 1) {
+            if (inB.contains(a[i])) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /* Get the lines of A at INDICES */
+    private static int[] select(int[] a, int[] indices) {
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            result[i] = a[indices[i]];
+        }
+        return result;
+    }
+
+    /* Get the changes that turn A into B, in order */
+    public static List<Hunk> diff(Lines a, Lines b) {
+        return diff(a.ids, b.ids);
+    }
+
+    /* Mark the changes between A[aLo, aHi) and B[bLo, bHi). The first
+     * half of each split is a recursive call and the second half loops,
+     * so the depth only grows with the log of the edit distance.
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (true) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            int[] split = aLo == aHi || bLo == bHi ? null : middleSnake(aLo, aHi, bLo, bHi);
+            if (split == null) {
+                Arrays.fill(changedA, aLo, aHi, true);
+                Arrays.fill(changedB, bLo, bHi, true);
+                return;
+            }
+            compare(aLo, split[0], bLo, split[1]);
+            aLo = split[0];
+            bLo = split[1];
+        }
+    }
+
+    /* Find a point on a shortest edit path from (aLo, bLo) to (aHi, bHi),
+     * both ends being different lines, strictly between the two. Returns
+     * null if there is none worth splitting at.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        /* only the diagonals a search within maxCost can reach */
+        int reach = Math.min(maxD, maxCost + 1);
+        Arrays.fill(forward, offset - reach, offset + reach + 2, -1);
+        Arrays.fill(backward, offset - reach, offset + reach + 2, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+
+        /* diagonals that ran off the edges are not searched again */
+        int fStart = 0;
+        int fEnd = 0;
+        int bStart = 0;
+        int bEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d > maxCost) {
+                return furthest(aLo, aHi, bLo, bHi, d - 1 - fStart, d - 1 - fEnd, offset);
+            }
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (odd) {
+                    int other = offset + delta - k;
+                    if (other >= offset - reach && other < offset + reach + 2
+                            && backward[other] != -1 && x >= n - backward[other]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    bEnd += 2;
+                } else if (y > m) {
+                    bStart += 2;
+                } else if (!odd) {
+                    int other = offset + delta - k;
+                    if (other >= offset - reach && other < offset + reach + 2
+                            && forward[other] != -1) {
+                        int fx = forward[other];
+                        int fy = fx - (other - offset);
+                        if (fx >= n - x) {
+                            return new int[] {aLo + fx, bLo + fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /* Get the furthest point the forward search reached on the diagonals
+     * from LOW to HIGH, or null if it did not leave the corners
+     */
+    private int[] furthest(int aLo, int aHi, int bLo, int bHi, int low, int high, int offset) {
+        int bestX = 0;
+        int bestY = 0;
+        for (int k = -low; k <= high; k += 1) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x >= 0 && x <= aHi - aLo && y >= 0 && y <= bHi - bLo && x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        if (bestX + bestY == 0 || (bestX == aHi - aLo && bestY == bHi - bLo)) {
+            return null;
+        }
+        return new int[] {aLo + bestX, bLo + bestY};
+    }
+
+    /* Collect the lines marked in CHANGEDA and CHANGEDB into hunks */
+    private static List<Hunk> hunks(boolean[] changedA, boolean[] changedB) {
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < changedA.length || j < changedB.length) {
+            if (i < changedA.length && j < changedB.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < changedA.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < changedB.length && changedB[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(aStart, i, bStart, j));
+        }
+        return result;
+    }
+}
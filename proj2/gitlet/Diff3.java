@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Merges two versions of a file line by line against the version they
+ *  both came from, as diff3 does. Each side is diffed against the base,
+ *  and the hunks of the two sides are walked in the order of the base:
+ *  a hunk that no hunk of the other side overlaps or touches is taken as
+ *  it is, and hunks that do are grouped into one region. A region both
+ *  sides changed the same way is taken once; otherwise it is a conflict.
+ *  Lines at the start and end of a conflict that both sides agree on are
+ *  written outside the markers, so the markers only hold what differs.
+ *
+ *  A conflict is written as
+ *      <<<<<<< HEAD
+ *      the lines of the current branch
+ *      =======
+ *      the lines of the given branch
+ *      >>>>>>>
+ *
+ *  @author Jiehao Guan
+ */
+public class Diff3 {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Diff.Lines base;
+    private final Diff.Lines ours;
+    private final Diff.Lines theirs;
+    private final OutputStream out;
+
+    /* Whether a conflict was written */
+    private boolean conflict;
+
+    private Diff3(byte[] base, byte[] ours, byte[] theirs, OutputStream out) {
+        Diff.LineTable ids = new Diff.LineTable();
+        this.base = new Diff.Lines(base, ids);
+        this.ours = new Diff.Lines(ours, ids);
+        this.theirs = new Diff.Lines(theirs, ids);
+        this.out = out;
+    }
+
+    /* Write the merge of OURS and THEIRS, both changed from BASE, to OUT.
+     * Returns true if any region is left as a conflict.
+     */
+    public static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        Diff3 merge = new Diff3(base, ours, theirs, out);
+        merge.merge();
+        return merge.conflict;
+    }
+
+    private void merge() throws IOException {
+        List<Diff.Hunk> oursHunks = Diff.diff(base, ours);
+        List<Diff.Hunk> theirsHunks = Diff.diff(base, theirs);
+
+        /* the base lines written so far, and how far each side is shifted
+         * from the base by the hunks before the current region
+         */
+        int done = 0;
+        int oursShift = 0;
+        int theirsShift = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oursHunks.size() || j < theirsHunks.size()) {
+            /* start a region at the hunk earliest in the base */
+            boolean startOurs = j == theirsHunks.size() || (i < oursHunks.size()
+                    && oursHunks.get(i).aStart <= theirsHunks.get(j).aStart);
+            Diff.Hunk first = startOurs ? oursHunks.get(i) : theirsHunks.get(j);
+            int start = first.aStart;
+            int end = first.aEnd;
+            int oursFrom = i;
+            int theirsFrom = j;
+
+            /* take every hunk of either side that overlaps or touches it */
+            while (true) {
+                if (i < oursHunks.size() && oursHunks.get(i).aStart <= end) {
+                    end = Math.max(end, oursHunks.get(i).aEnd);
+                    i += 1;
+                } else if (j < theirsHunks.size() && theirsHunks.get(j).aStart <= end) {
+                    end = Math.max(end, theirsHunks.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+
+            write(base, done, start);
+            int oursStart = start + oursShift;
+            int theirsStart = start + theirsShift;
+            oursShift += shift(oursHunks, oursFrom, i);
+            theirsShift += shift(theirsHunks, theirsFrom, j);
+            int oursEnd = end + oursShift;
+            int theirsEnd = end + theirsShift;
+
+            if (theirsFrom == j) {
+                write(ours, oursStart, oursEnd);
+            } else if (oursFrom == i) {
+                write(theirs, theirsStart, theirsEnd);
+            } else {
+                resolve(oursStart, oursEnd, theirsStart, theirsEnd);
+            }
+            done = end;
+        }
+        write(base, done, base.size());
+    }
+
+    /* Get the change in length made by HUNKS from FROM to TO */
+    private static int shift(List<Diff.Hunk> hunks, int from, int to) {
+        int result = 0;
+        for (int k = from; k < to; k += 1) {
+            Diff.Hunk hunk = hunks.get(k);
+            result += (hunk.bEnd - hunk.bStart) - (hunk.aEnd - hunk.aStart);
+        }
+        return result;
+    }
+
+    /* Write a region both sides changed: once if they agree, otherwise
+     * as a conflict around the lines in which they differ
+     */
+    private void resolve(int oursStart, int oursEnd, int theirsStart, int theirsEnd)
+            throws IOException {
+        int regionStart = oursStart;
+        int regionEnd = oursEnd;
+        while (oursStart < oursEnd && theirsStart < theirsEnd
+                && ours.ids[oursStart] == theirs.ids[theirsStart]) {
+            oursStart += 1;
+            theirsStart += 1;
+        }
+        while (oursEnd > oursStart && theirsEnd > theirsStart
+                && ours.ids[oursEnd - 1] == theirs.ids[theirsEnd - 1]) {
+            oursEnd -= 1;
+            theirsEnd -= 1;
+        }
+        write(ours, regionStart, oursStart);
+        if (oursStart < oursEnd || theirsStart < theirsEnd) {
+            conflict = true;
+            out.write(OURS_MARKER);
+            writeLine(ours, oursStart, oursEnd);
+            out.write(SEPARATOR);
+            writeLine(theirs, theirsStart, theirsEnd);
+            out.write(THEIRS_MARKER);
+        }
+        write(ours, oursEnd, regionEnd);
+    }
+
+    /* Write the lines of FILE from START to END */
+    private void write(Diff.Lines file, int start, int end) throws IOException {
+        if (start < end) {
+            out.write(file.data, file.starts[start], file.starts[end] - file.starts[start]);
+        }
+    }
+
+    /* Write the lines of FILE from START to END, ending them with a '\n'
+     * if the last one has none, so a marker always starts a line
+     */
+    private void writeLine(Diff.Lines file, int start, int end) throws IOException {
+        write(file, start, end);
+        if (start < end && end == file.size() && !file.endsWithNewline()) {
+            out.write('\n');
+        }
+    }
+}
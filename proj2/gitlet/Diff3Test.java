@@ -0,0 +1,212 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Tests of the line diff, Diff, and of the three-way merge, Diff3.
+ *  @author Jiehao Guan
+ */
+public class Diff3Test {
+    /* The result of a merge */
+    private static class Merged {
+        final String text;
+        final boolean conflict;
+
+        Merged(String text, boolean conflict) {
+            this.text = text;
+            this.conflict = conflict;
+        }
+    }
+
+    private static Merged merge(String base, String ours, String theirs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = Diff3.merge(base.getBytes(StandardCharsets.UTF_8),
+                ours.getBytes(StandardCharsets.UTF_8), theirs.getBytes(StandardCharsets.UTF_8), out);
+        return new Merged(out.toString(StandardCharsets.UTF_8), conflict);
+    }
+
+    private static void assertClean(String expected, Merged merged) {
+        assertFalse("unexpected conflict in\n" + merged.text, merged.conflict);
+        assertEquals(expected, merged.text);
+    }
+
+    private static void assertConflict(String expected, Merged merged) {
+        assertTrue("expected a conflict in\n" + merged.text, merged.conflict);
+        assertEquals(expected, merged.text);
+    }
+
+    @Test
+    /** Changes to different lines apart from each other merge cleanly */
+    public void separateChangesMerge() throws IOException {
+        assertClean("a\nB\nc\nD\ne\n",
+                merge("a\nb\nc\nd\ne\n", "a\nB\nc\nd\ne\n", "a\nb\nc\nD\ne\n"));
+    }
+
+    @Test
+    /** A change on one side only is taken as it is */
+    public void oneSidedChange() throws IOException {
+        assertClean("a\nB\nc\n", merge("a\nb\nc\n", "a\nB\nc\n", "a\nb\nc\n"));
+        assertClean("a\nB\nc\n", merge("a\nb\nc\n", "a\nb\nc\n", "a\nB\nc\n"));
+        assertClean("a\nc\n", merge("a\nb\nc\n", "a\nb\nc\n", "a\nc\n"));
+    }
+
+    @Test
+    /** The same change on both sides is taken once */
+    public void sameChangeMerges() throws IOException {
+        assertClean("a\nB\nc\n", merge("a\nb\nc\n", "a\nB\nc\n", "a\nB\nc\n"));
+        assertClean("a\nc\n", merge("a\nb\nc\n", "a\nc\n", "a\nc\n"));
+    }
+
+    @Test
+    /** Different changes to the same line conflict */
+    public void sameLineConflicts() throws IOException {
+        assertConflict("a\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\nc\n",
+                merge("a\nb\nc\n", "a\nours\nc\n", "a\ntheirs\nc\n"));
+    }
+
+    @Test
+    /** Changes to adjacent lines touch, so they conflict as in diff3 */
+    public void adjacentChangesConflict() throws IOException {
+        assertConflict("a\n<<<<<<< HEAD\nB\nc\n=======\nb\nC\n>>>>>>>\nd\n",
+                merge("a\nb\nc\nd\n", "a\nB\nc\nd\n", "a\nb\nC\nd\n"));
+    }
+
+    @Test
+    /** Lines both sides agree on are kept out of the markers */
+    public void agreedLinesAreTrimmed() throws IOException {
+        assertConflict("a\nX\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\nY\nc\n",
+                merge("a\nb\nc\n", "a\nX\nours\nY\nc\n", "a\nX\ntheirs\nY\nc\n"));
+    }
+
+    @Test
+    /** A file deleted on one side and changed on the other conflicts,
+     *  with nothing for the side that deleted it */
+    public void deletionAgainstModification() throws IOException {
+        assertConflict("<<<<<<< HEAD\n=======\nchanged\n>>>>>>>\n",
+                merge("line\n", "", "changed\n"));
+        assertConflict("<<<<<<< HEAD\nchanged\n=======\n>>>>>>>\n",
+                merge("line\n", "changed\n", ""));
+    }
+
+    @Test
+    /** Lines deleted on one side and changed on the other conflict over
+     *  all the lines deleted */
+    public void deletedLinesAgainstModifiedLines() throws IOException {
+        assertConflict("a\n<<<<<<< HEAD\n=======\nB\nc\n>>>>>>>\nd\n",
+                merge("a\nb\nc\nd\n", "a\nd\n", "a\nB\nc\nd\n"));
+    }
+
+    @Test
+    /** Two sides adding different files conflict over all of them */
+    public void addedOnBothSides() throws IOException {
+        assertConflict("<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\n",
+                merge("", "ours\n", "theirs\n"));
+    }
+
+    @Test
+    /** Insertions at the start and the end of the file merge */
+    public void insertionsAtBothEnds() throws IOException {
+        assertClean("first\na\nb\nc\nlast\n",
+                merge("a\nb\nc\n", "first\na\nb\nc\n", "a\nb\nc\nlast\n"));
+    }
+
+    @Test
+    /** A conflicting last line without a newline still ends its part of
+     *  the conflict with one, so the markers start their own lines */
+    public void missingNewlineInConflict() throws IOException {
+        assertConflict("a\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\n",
+                merge("a\nb", "a\nours", "a\ntheirs"));
+    }
+
+    /* Get a random file of up to MAXLINES lines from a small alphabet,
+     * so lines repeat as they do in real files
+     */
+    private static int[] randomLines(Random random, int maxLines) {
+        int[] lines = new int[random.nextInt(maxLines + 1)];
+        for (int i = 0; i < lines.length; i += 1) {
+            lines[i] = random.nextInt(6);
+        }
+        return lines;
+    }
+
+    /* Get the length of the longest common subsequence of A and B */
+    private static int lcs(int[] a, int[] b) {
+        int[][] length = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i -= 1) {
+            for (int j = b.length - 1; j >= 0; j -= 1) {
+                length[i][j] = a[i] == b[j] ? length[i + 1][j + 1] + 1
+                        : Math.max(length[i + 1][j], length[i][j + 1]);
+            }
+        }
+        return length[0][0];
+    }
+
+    @Test
+    /** Random diffs turn A into B, in order, with as few edits as any */
+    public void diffIsCorrectAndShortest() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 2000; trial += 1) {
+            int[] a = randomLines(random, 30);
+            int[] b = randomLines(random, 30);
+            List<Diff.Hunk> hunks = Diff.diff(a, b);
+
+            List<Integer> result = new ArrayList<>();
+            int aDone = 0;
+            int bDone = 0;
+            int edits = 0;
+            for (Diff.Hunk hunk : hunks) {
+                assertTrue(hunk.aStart >= aDone && hunk.bStart >= bDone);
+                assertTrue(hunk.aStart < hunk.aEnd || hunk.bStart < hunk.bEnd);
+                assertEquals(hunk.aStart - aDone, hunk.bStart - bDone);
+                for (int i = aDone; i < hunk.aStart; i += 1) {
+                    result.add(a[i]);
+                }
+                for (int j = hunk.bStart; j < hunk.bEnd; j += 1) {
+                    result.add(b[j]);
+                }
+                edits += (hunk.aEnd - hunk.aStart) + (hunk.bEnd - hunk.bStart);
+                aDone = hunk.aEnd;
+                bDone = hunk.bEnd;
+            }
+            for (int i = aDone; i < a.length; i += 1) {
+                result.add(a[i]);
+            }
+            assertEquals(b.length, result.size());
+            for (int j = 0; j < b.length; j += 1) {
+                assertEquals(b[j], (int) result.get(j));
+            }
+            assertEquals(a.length + b.length - 2 * lcs(a, b), edits);
+        }
+    }
+
+    /* Write LINES as a file, one letter per line */
+    private static String text(int[] lines) {
+        StringBuilder result = new StringBuilder();
+        for (int line : lines) {
+            result.append((char) ('a' + line)).append('\n');
+        }
+        return result.toString();
+    }
+
+    @Test
+    /** Random merges: a side equal to the base, or two equal sides, give
+     *  the other side back without a conflict */
+    public void randomMergesOfUnchangedSides() throws IOException {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 2000; trial += 1) {
+            String base = text(randomLines(random, 20));
+            String changed = text(randomLines(random, 20));
+            assertClean(changed, merge(base, changed, base));
+            assertClean(changed, merge(base, base, changed));
+            assertClean(changed, merge(base, changed, changed));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Reads a stream of blobs, commits and branch moves, as git fast-import
+ *  does, and writes them as gitlet objects:
+ *
+ *      blob
+ *      mark :N
+ *      data COUNT
+ *      <COUNT bytes>
+ *
+ *      commit BRANCH
+ *      mark :N                  optional
+ *      time SECONDS ZONE        optional, epoch seconds and +hhmm
+ *      data COUNT
+ *      <COUNT bytes of message>
+ *      from COMMIT              optional first parent
+ *      merge COMMIT             optional second parent
+ *      M BLOB PATH              any number of these three, in order
+ *      D PATH
+ *      deleteall
+ *
+ *      reset BRANCH
+ *      from COMMIT
+ *
+ *      done                     optional, ends the stream
+ *
+ *  A COMMIT is a mark :N or a full commit id, and a BLOB is a mark :N, a
+ *  full blob id, or "inline" followed by a data block on the next lines.
+ *  M adds or changes the file PATH, D removes a file or a directory, and
+ *  deleteall starts the commit from an empty tree. A commit without from
+ *  follows the last commit of its branch: made earlier in the stream, or
+ *  the head of the branch before the import, or, for a new branch, the
+ *  initial commit all gitlet histories start from. Empty lines and lines
+ *  starting with # are skipped.
+ *
+ *  A blob id is the hash of the path and the content, so a blob from the
+ *  stream only becomes an object when an M line names its path. Until
+ *  then its content waits in a spill file instead of on the heap.
+ *
+ *  The objects are written as they are read. The caller runs the import
+ *  in a batch, so they all go to one pack, and only moves the branches to
+ *  getHeads once the pack is in place.
+ *
+ *  @author Jiehao Guan
+ */
+public class FastImport {
+    private final ObjectStore store;
+    private final InputStream in;
+
+    /* The first commit of every history, the parent of a new branch */
+    private final String root;
+
+    /* The head of each branch before the import, or null */
+    private final Function<String, String> oldHead;
+
+    /* Called with every commit once it is written */
+    private final Consumer<Commit> onCommit;
+
+    /* The heads of the branches changed by the stream */
+    private final Map<String, String> heads = new LinkedHashMap<>();
+
+    /* The commits and blobs defined under each mark. A blob is kept as the
+     * offset and length of its content in the spill file.
+     */
+    private final Map<Integer, String> commitMarks = new HashMap<>();
+    private final Map<Integer, long[]> blobMarks = new HashMap<>();
+
+    private final File spillFile;
+    private RandomAccessFile spill;
+
+    /* A line read ahead and given back */
+    private String pushedBack;
+
+    private int commits;
+    private int blobs;
+
+    public FastImport(ObjectStore store, InputStream in, File spillDir, String root,
+                      Function<String, String> oldHead, Consumer<Commit> onCommit) {
+        this.store = store;
+        this.in = new BufferedInputStream(in, 1 << 16);
+        this.spillFile = Utils.join(spillDir, "fast-import-spill");
+        this.root = root;
+        this.oldHead = oldHead;
+        this.onCommit = onCommit;
+    }
+
+    /* Get the new head of every branch the stream changed */
+    public Map<String, String> getHeads() {
+        return heads;
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getBlobs() {
+        return blobs;
+    }
+
+    /* Read the whole stream, writing its objects */
+    public void run() {
+        try {
+            String line;
+            while ((line = readCommand()) != null) {
+                if (line.equals("blob")) {
+                    readBlob();
+                } else if (line.startsWith("commit ")) {
+                    readCommit(branchName(line.substring("commit ".length())));
+                } else if (line.startsWith("reset ")) {
+                    readReset(branchName(line.substring("reset ".length())));
+                } else if (line.equals("done")) {
+                    break;
+                } else {
+                    throw Utils.error("Unknown fast-import command: %s", line);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            closeSpill();
+        }
+    }
+
+    /* blob: keep the content in the spill file under its mark */
+    private void readBlob() throws IOException {
+        int mark = readMark(expectLine());
+        long[] region = spillData(expectLine());
+        commitMarks.remove(mark);
+        blobMarks.put(mark, region);
+    }
+
+    /* commit BRANCH and everything up to the next command */
+    private void readCommit(String branch) throws IOException {
+        String line = expectLine();
+        Integer mark = null;
+        if (line.startsWith("mark ")) {
+            mark = readMark(line);
+            line = expectLine();
+        }
+        long time = System.currentTimeMillis();
+        Integer zone = null;
+        if (line.startsWith("time ")) {
+            String[] parts = line.split(" ");
+            if (parts.length != 3 || !parts[2].matches("[+-]\\d{4}")) {
+                throw Utils.error("Bad time line: %s", line);
+            }
+            try {
+                time = Long.parseLong(parts[1]) * 1000;
+            } catch (NumberFormatException excp) {
+                throw Utils.error("Bad time line: %s", line);
+            }
+            int minutes = Integer.parseInt(parts[2].substring(1, 3)) * 60
+                    + Integer.parseInt(parts[2].substring(3, 5));
+            zone = parts[2].charAt(0) == '-' ? -minutes : minutes;
+            line = expectLine();
+        }
+        String message = new String(readData(line), StandardCharsets.UTF_8);
+
+        ArrayList<String> parents = new ArrayList<>();
+        line = readCommand();
+        if (line != null && line.startsWith("from ")) {
+            parents.add(commitRef(line.substring("from ".length())));
+            line = readCommand();
+        } else {
+            parents.add(currentHead(branch));
+        }
+        if (line != null && line.startsWith("merge ")) {
+            parents.add(commitRef(line.substring("merge ".length())));
+            line = readCommand();
+        }
+
+        String tree = Commit.read(parents.get(0)).getTreeId();
+        Map<String, String> changes = new LinkedHashMap<>();
+        while (line != null) {
+            if (line.startsWith("M ")) {
+                int space = line.indexOf(' ', 2);
+                if (space < 0) {
+                    throw Utils.error("Bad M line: %s", line);
+                }
+                String path = path(line.substring(space + 1));
+                changes.put(path, blobRef(line.substring(2, space), path));
+            } else if (line.startsWith("D ")) {
+                String path = path(line.substring(2));
+                changes.keySet().removeIf(p -> p.startsWith(path + Tree.SEPARATOR));
+                changes.put(path, null);
+            } else if (line.equals("deleteall")) {
+                tree = null;
+                changes.clear();
+            } else {
+                pushedBack = line;
+                break;
+            }
+            line = readCommand();
+        }
+
+        Commit commit = new Commit(message, parents, Tree.update(store, tree, changes),
+                time, zone);
+        commit.save();
+        commits += 1;
+        heads.put(branch, commit.getSha1ID());
+        if (mark != null) {
+            blobMarks.remove(mark);
+            commitMarks.put(mark, commit.getSha1ID());
+        }
+        onCommit.accept(commit);
+    }
+
+    /* reset BRANCH: move the branch to the commit of the from line */
+    private void readReset(String branch) throws IOException {
+        String line = readCommand();
+        if (line == null || !line.startsWith("from ")) {
+            throw Utils.error("Missing from after reset %s.", branch);
+        }
+        heads.put(branch, commitRef(line.substring("from ".length())));
+    }
+
+    /* Get the commit a commit without from follows on BRANCH */
+    private String currentHead(String branch) {
+        String head = heads.get(branch);
+        if (head == null) {
+            head = oldHead.apply(branch);
+        }
+        return head == null ? root : head;
+    }
+
+    /* Get the commit id of REF, a mark or a full id */
+    private String commitRef(String ref) {
+        if (ref.startsWith(":")) {
+            String id = commitMarks.get(parseMark(ref));
+            if (id == null) {
+                throw Utils.error("No commit under mark %s.", ref);
+            }
+            return id;
+        }
+        if (ref.length() != Utils.UID_LENGTH || !store.contains(ref)) {
+            throw Utils.error("No commit with id %s.", ref);
+        }
+        return ref;
+    }
+
+    /* Get the id of the blob REF as the file PATH, writing it if needed */
+    private String blobRef(String ref, String path) throws IOException {
+        byte[] content;
+        if (ref.equals("inline")) {
+            content = readData(readLine());
+        } else if (ref.startsWith(":")) {
+            long[] region = blobMarks.get(parseMark(ref));
+            if (region == null) {
+                throw Utils.error("No blob under mark %s.", ref);
+            }
+            content = new byte[(int) region[1]];
+            spill.seek(region[0]);
+            spill.readFully(content);
+        } else {
+            if (ref.length() != Utils.UID_LENGTH || !store.contains(ref)) {
+                throw Utils.error("No blob with id %s.", ref);
+            }
+            return ref;
+        }
+        String id = Utils.sha1(path, content);
+        if (!store.contains(id)) {
+            store.write(id, ObjectStore.BLOB, content);
+            blobs += 1;
+        }
+        return id;
+    }
+
+    /* Check the BRANCH name of a command */
+    private static String branchName(String branch) {
+        if (branch.isEmpty() || branch.endsWith(".lock") || branch.startsWith("/")
+                || branch.endsWith("/") || branch.contains("..") || branch.contains("//")) {
+            throw Utils.error("Bad branch name: %s", branch);
+        }
+        return branch;
+    }
+
+    /* Check a PATH of an M or D line */
+    private static String path(String path) {
+        for (String part : path.split(String.valueOf(Tree.SEPARATOR), -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")
+                    || part.equals(".gitlet")) {
+                throw Utils.error("Bad path: %s", path);
+            }
+        }
+        return path;
+    }
+
+    /* Parse the mark of a "mark :N" LINE */
+    private static int readMark(String line) {
+        if (!line.startsWith("mark ")) {
+            throw Utils.error("Expected a mark, got: %s", line);
+        }
+        return parseMark(line.substring("mark ".length()));
+    }
+
+    /* Parse the mark :N */
+    private static int parseMark(String mark) {
+        try {
+            if (mark.startsWith(":")) {
+                return Integer.parseInt(mark.substring(1));
+            }
+        } catch (NumberFormatException excp) {
+            /* reported below */
+        }
+        throw Utils.error("Bad mark: %s", mark);
+    }
+
+    /* Parse the COUNT of a "data COUNT" LINE */
+    private static long dataLength(String line) {
+        if (line == null || !line.startsWith("data ")) {
+            throw Utils.error("Expected data, got: %s", line);
+        }
+        try {
+            long count = Long.parseLong(line.substring("data ".length()));
+            if (count >= 0 && count <= Integer.MAX_VALUE) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            /* reported below */
+        }
+        throw Utils.error("Bad data length: %s", line);
+    }
+
+    /* Read the data block announced by LINE onto the heap */
+    private byte[] readData(String line) throws IOException {
+        byte[] data = new byte[(int) dataLength(line)];
+        if (in.readNBytes(data, 0, data.length) != data.length) {
+            throw Utils.error("Unexpected end of the fast-import stream.");
+        }
+        return data;
+    }
+
+    /* Copy the data block announced by LINE to the end of the spill file.
+     * Returns its offset and length there.
+     */
+    private long[] spillData(String line) throws IOException {
+        long length = dataLength(line);
+        if (spill == null) {
+            spill = new RandomAccessFile(spillFile, "rw");
+            spill.setLength(0);
+        }
+        long offset = spill.length();
+        spill.seek(offset);
+        byte[] buffer = new byte[(int) Math.min(length, 1 << 16)];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (n < 0) {
+                throw Utils.error("Unexpected end of the fast-import stream.");
+            }
+            spill.write(buffer, 0, n);
+            remaining -= n;
+        }
+        return new long[] {offset, length};
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException excp) {
+                /* it is deleted right away */
+            }
+            spill = null;
+        }
+        spillFile.delete();
+    }
+
+    /* Read the next line that is not empty or a comment, or null at the end */
+    private String readCommand() throws IOException {
+        String line;
+        do {
+            line = readLine();
+        } while (line != null && (line.isEmpty() || line.startsWith("#")));
+        return line;
+    }
+
+    /* Read the next line, which must be there */
+    private String expectLine() throws IOException {
+        String line = readLine();
+        if (line == null) {
+            throw Utils.error("Unexpected end of the fast-import stream.");
+        }
+        return line;
+    }
+
+    /* Read the next line without its '\n', or null at the end */
+    private String readLine() throws IOException {
+        if (pushedBack != null) {
+            String line = pushedBack;
+            pushedBack = null;
+            return line;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** Finds the objects of a repository that are still in use, for gc.
+ *
+ *  An object is live if it is one of the reachable commits, or the tree
+ *  of one, or anything under such a tree, or a staged blob. The commits
+ *  come from the reachability bitmaps of the branches, so finding them
+ *  reads no commit at all; marking then reads each reachable commit and
+ *  walks its tree. The commits are marked in parallel, sharing one set of
+ *  marked ids: whichever thread adds a tree first walks it, and every
+ *  other thread skips it, so a directory that did not change between
+ *  commits is walked once however many commits hold it.
+ *
+ *  Only the ids are kept. Blobs are never read, as they refer to nothing.
+ *
+ *  @author Jiehao Guan
+ */
+public class GarbageCollector {
+    /* The number of threads marking when none is given */
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final ObjectStore store;
+    private final int threads;
+
+    /* The ids marked so far */
+    private final Set<String> live = ConcurrentHashMap.newKeySet();
+
+    public GarbageCollector(ObjectStore store, int threads) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+    }
+
+    /* Mark the COMMITS, which must hold every reachable commit, the objects
+     * they refer to and the staged BLOBS. Returns the ids of all of them.
+     */
+    public Set<String> mark(List<String> commits, Collection<String> blobs) {
+        live.addAll(blobs);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> commits.parallelStream().forEach(this::markCommit)).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            /* a missing object: nothing may be deleted */
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause);
+        } finally {
+            pool.shutdown();
+        }
+        return live;
+    }
+
+    /* Mark the commit ID and what it refers to, but not its parents,
+     * which are among the commits being marked
+     */
+    private void markCommit(String id) {
+        if (!live.add(id)) {
+            return;
+        }
+        Commit commit = Commit.decode(id, store.read(id, ObjectStore.COMMIT));
+        if (commit.hasTree()) {
+            markTree(commit.getTreeId());
+        } else {
+            live.addAll(commit.getBlobs().values());
+        }
+    }
+
+    /* Mark the tree ID and everything under it, unless already marked */
+    private void markTree(String id) {
+        if (!live.add(id)) {
+            return;
+        }
+        Tree tree = Tree.decode(store.read(id, ObjectStore.TREE));
+        for (Tree.Entry entry : tree.getEntries().values()) {
+            if (entry.isTree()) {
+                markTree(entry.id);
+            } else {
+                live.add(entry.id);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import static gitlet.Utils.exitWithError;
+
+/** Prints commits for log, global-log and find, and holds the options
+ *  that limit which commits are printed:
+ *
+ *      -n COUNT         print at most COUNT commits, also -nCOUNT
+ *      --since=DATE     only commits made at or after DATE
+ *      --until=DATE     only commits made at or before DATE
+ *      --oneline        print each commit as "<short id> <first line>"
+ *
+ *  A DATE is "yyyy-MM-dd" or "yyyy-MM-dd HH:mm:ss", in local time.
+ *
+ *  Output goes through one buffered writer straight to the standard
+ *  output. The commands ask isDone before reading each commit, so they
+ *  stop walking as soon as COUNT commits are printed, or as soon as the
+ *  output is closed, as when it is piped into head.
+ *
+ *  @author Jiehao Guan
+ */
+public class LogWriter {
+    /* The size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* The length of an abbreviated id */
+    static final int SHORT_ID = 7;
+
+    /* The accepted formats of a DATE, tried in order */
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+
+    private int limit = Integer.MAX_VALUE;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private boolean oneline;
+
+    /* The number of commits printed so far */
+    private int printed;
+
+    /* Whether the output can no longer be written */
+    private boolean closed;
+
+    private final Writer out = new BufferedWriter(
+            new OutputStreamWriter(Utils.output()), BUFFER_SIZE);
+
+    /* A writer printing every commit in the full format */
+    public LogWriter() {
+    }
+
+    /* A writer with the options in OPTIONS */
+    public static LogWriter parse(List<String> options) {
+        LogWriter result = new LogWriter();
+        for (int i = 0; i < options.size(); i += 1) {
+            String option = options.get(i);
+            if (option.equals("-n") && i + 1 < options.size()) {
+                i += 1;
+                result.limit = parseCount(options.get(i));
+            } else if (option.startsWith("-n") && option.length() > 2) {
+                result.limit = parseCount(option.substring(2));
+            } else if (option.startsWith("--since=")) {
+                result.since = parseDate(option.substring("--since=".length()));
+            } else if (option.startsWith("--until=")) {
+                result.until = parseDate(option.substring("--until=".length()));
+            } else if (option.equals("--oneline")) {
+                result.oneline = true;
+            } else {
+                exitWithError("Incorrect operands.");
+            }
+        }
+        return result;
+    }
+
+    /* Parse the COUNT of -n */
+    private static int parseCount(String count) {
+        try {
+            int result = Integer.parseInt(count);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* reported below */
+        }
+        exitWithError("Incorrect operands.");
+        return 0;
+    }
+
+    /* Parse DATE into epoch millis */
+    private static long parseDate(String date) {
+        for (String format : DATE_FORMATS) {
+            SimpleDateFormat parser = new SimpleDateFormat(format);
+            parser.setLenient(false);
+            try {
+                if (date.length() == format.length()) {
+                    return parser.parse(date).getTime();
+                }
+            } catch (ParseException excp) {
+                /* try the next format */
+            }
+        }
+        exitWithError("Incorrect operands.");
+        return 0;
+    }
+
+    /* Check if nothing more will be printed */
+    public boolean isDone() {
+        return closed || printed >= limit;
+    }
+
+    /* Check if a commit made at TIMESTAMP is too new to print */
+    public boolean isAfterRange(long timestamp) {
+        return timestamp > until;
+    }
+
+    /* Check if a commit made at TIMESTAMP is too old to print */
+    public boolean isBeforeRange(long timestamp) {
+        return timestamp < since;
+    }
+
+    /* Print COMMIT, if the output is still open */
+    public void print(Commit commit) {
+        if (isDone()) {
+            return;
+        }
+        try {
+            String id = commit.getSha1ID();
+            String message = commit.getMessage();
+            if (oneline) {
+                int end = message.indexOf('\n');
+                out.write(id, 0, SHORT_ID);
+                out.write(' ');
+                out.write(message, 0, end < 0 ? message.length() : end);
+                out.write('\n');
+            } else {
+                out.write("===\ncommit ");
+                out.write(id);
+                out.write('\n');
+                List<String> parents = commit.getParents();
+                if (parents.size() > 1) {
+                    out.write("Merge: ");
+                    out.write(parents.get(0), 0, SHORT_ID);
+                    out.write(' ');
+                    out.write(parents.get(1), 0, SHORT_ID);
+                    out.write('\n');
+                }
+                out.write("Date: ");
+                out.write(commit.getTime());
+                out.write('\n');
+                out.write(message);
+                out.write("\n\n");
+            }
+            printed += 1;
+        } catch (IOException excp) {
+            closed = true;
+        }
+    }
+
+    /* Write out whatever is still buffered */
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            closed = true;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 import static gitlet.Utils.exitWithError;
 import static gitlet.Utils.validateNumberArgs;
 
@@ -12,12 +14,55 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            int status = run(args);
+            if (status != 0) {
+                System.exit(status);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            /* the temporary pack of a batch cut short is not left behind */
+            Repository.OBJECT_STORE.abortBatch();
+            System.exit(0);
+        } catch (RuntimeException excp) {
+            Repository.OBJECT_STORE.abortBatch();
+            throw excp;
+        }
+    }
+
+    /* Run the command in ARGS in a process that goes on to run others, as
+     * the daemon and batch do: what is cached from disk is checked first,
+     * and an error is printed instead of ending the process. Returns the
+     * error, or null if the command succeeded.
+     */
+    static String runInProcess(String[] args) {
+        try {
+            Repository.refresh();
+            run(args);
+            return null;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            return excp.getMessage();
+        } finally {
+            /* the objects of a command that failed half way are dropped,
+             * as they are when a plain invocation exits
+             */
+            Repository.OBJECT_STORE.abortBatch();
+        }
+    }
+
+    /* Run the command in ARGS, throwing a GitletException on an error.
+     * Returns the exit status, which is only not 0 for a batch in which a
+     * command failed.
+     */
+    static int run(String[] args) {
         // print the error and exit.
         if (args.length == 0) {
             exitWithError("Please enter a command.");
         }
 
         Repository repo = new Repository();
+        int status = 0;
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
@@ -25,8 +70,10 @@ public class Main {
                 repo.init();
                 break;
             case "add":
-                validateNumberArgs(args, 2);
-                repo.add(args[1]);
+                if (args.length < 2) {
+                    exitWithError("Incorrect operands.");
+                }
+                repo.add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 validateNumberArgs(args, 2);
@@ -41,17 +88,30 @@ public class Main {
                 repo.remove(args[1]);
                 break;
             case "log":
-                validateNumberArgs(args, 1);
-                repo.log();
+                repo.log(LogWriter.parse(Arrays.asList(args).subList(1, args.length)));
                 break;
             case "global-log":
-                validateNumberArgs(args, 1);
-                repo.globalLog();
+                repo.globalLog(LogWriter.parse(Arrays.asList(args).subList(1, args.length)));
                 break;
             case "find":
+                if (args.length == 3 && args[1].equals("--substring")) {
+                    repo.find(args[2], true);
+                    break;
+                }
                 validateNumberArgs(args, 2);
                 repo.find(args[1]);
                 break;
+            case "diff":
+                if (args.length == 1) {
+                    repo.diff();
+                } else if (args.length == 2 && args[1].equals("--cached")) {
+                    repo.diffCached();
+                } else if (args.length == 3) {
+                    repo.diffCommits(args[1], args[2]);
+                } else {
+                    exitWithError("Incorrect operands.");
+                }
+                break;
             case "status":
                 validateNumberArgs(args, 1);
                 repo.status();
@@ -77,6 +137,7 @@ public class Main {
                         exitWithError("Incorrect operands.");
                         break;
                 }
+                break;
             case "branch":
                 validateNumberArgs(args, 2);
                 repo.branch(args[1]);
@@ -93,10 +154,80 @@ public class Main {
                 validateNumberArgs(args, 2);
                 repo.merge(args[1]);
                 break;
+            case "repack":
+                validateNumberArgs(args, 1);
+                repo.repack();
+                break;
+            case "pack-refs":
+                validateNumberArgs(args, 1);
+                repo.packRefs();
+                break;
+            case "count-objects":
+                validateNumberArgs(args, 1);
+                repo.countObjects();
+                break;
+            case "gc":
+                if (args.length == 2 && args[1].equals("--prune=now")) {
+                    repo.gc(true);
+                } else {
+                    validateNumberArgs(args, 1);
+                    repo.gc(false);
+                }
+                break;
+            case "migrate":
+                validateNumberArgs(args, 1);
+                repo.migrate();
+                break;
+            case "daemon":
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    Daemon.stop();
+                } else {
+                    validateNumberArgs(args, 1);
+                    Daemon.serve();
+                }
+                break;
+            case "fast-import":
+                if (args.length > 2) {
+                    exitWithError("Incorrect operands.");
+                }
+                repo.fastImport(args.length == 2 ? args[1] : null);
+                break;
+            case "batch":
+                if (args.length > 2) {
+                    exitWithError("Incorrect operands.");
+                }
+                if (Batch.run(args.length == 2 ? args[1] : null) > 0) {
+                    status = 1;
+                }
+                break;
+            case "add-remote":
+                validateNumberArgs(args, 3);
+                repo.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                validateNumberArgs(args, 2);
+                repo.rmRemote(args[1]);
+                break;
+            case "fetch":
+                validateNumberArgs(args, 3);
+                repo.fetch(args[1], args[2]);
+                break;
+            case "push":
+                validateNumberArgs(args, 3);
+                repo.push(args[1], args[2]);
+                break;
+            case "pull":
+                validateNumberArgs(args, 3);
+                repo.pull(args[1], args[2]);
+                break;
 
             default:
                 exitWithError("No command with that name exists.");
         }
 
+        if (Boolean.getBoolean("gitlet.stats")) {
+            System.err.println(CommitCache.getInstance());
+        }
+        return status;
     }
 }
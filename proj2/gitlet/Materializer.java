@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Writes many blobs into a working directory at once, as checkout and
+ *  reset do. The work is a pipeline: the calling thread is the reader,
+ *  which creates the directories and decodes each blob, and a pool of
+ *  writer threads creates the files. The two are joined by a bounded
+ *  queue, and the decoded bytes waiting in it are bounded too, so the
+ *  reader blocks instead of running ahead and memory stays flat however
+ *  many files there are. Blobs too large to hold in memory are not
+ *  decoded by the reader; their writer streams them out of the store.
+ *
+ *  The number of writers is set by the gitlet.checkoutThreads property
+ *  (default: one per processor), the queue length by gitlet.checkoutQueue
+ *  and the bytes in flight by gitlet.checkoutMemory.
+ *
+ *  @author Jiehao Guan
+ */
+public class Materializer {
+    /* The number of writer threads when none is given */
+    static final int DEFAULT_THREADS = Integer.getInteger("gitlet.checkoutThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /* The number of files that may wait for a writer */
+    static final int QUEUE_CAPACITY = Integer.getInteger("gitlet.checkoutQueue", 256);
+
+    /* The number of decoded bytes that may wait for a writer */
+    static final long MEMORY_LIMIT = Long.getLong("gitlet.checkoutMemory", 64L * 1024 * 1024);
+
+    /* Blobs stored larger than this are streamed by their writer */
+    private static final long STREAM_THRESHOLD = 1024 * 1024;
+
+    /* Fewer files than this are written on the calling thread */
+    private static final int MIN_PARALLEL = 64;
+
+    /* The memory limit is counted in permits of this many bytes */
+    private static final int PERMIT_SIZE = 1024;
+
+    /* One file for a writer to create */
+    private static class Item {
+        final File file;
+        final String blobID;
+        /* The decoded blob, or null if the writer streams it */
+        final byte[] contents;
+        final int offset;
+        final int permits;
+
+        Item(File file, String blobID, byte[] contents, int offset, int permits) {
+            this.file = file;
+            this.blobID = blobID;
+            this.contents = contents;
+            this.offset = offset;
+            this.permits = permits;
+        }
+    }
+
+    /* Tells a writer there is nothing more to write */
+    private static final Item DONE = new Item(null, null, null, 0, 0);
+
+    private final ObjectStore store;
+    private final File root;
+    private final int threads;
+
+    public Materializer(ObjectStore store, File root, int threads) {
+        this.store = store;
+        this.root = root;
+        this.threads = Math.max(1, threads);
+    }
+
+    /* Write FILES, a map of path to blob id, under the root, creating or
+     * overwriting each file and creating the directories they need
+     */
+    public void write(Map<String, String> files) {
+        if (threads == 1 || files.size() < MIN_PARALLEL) {
+            Set<File> directories = new HashSet<>();
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                File file = Utils.join(root, entry.getKey());
+                makeParent(file, directories);
+                store.copyTo(entry.getValue(), file);
+            }
+            return;
+        }
+
+        int totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                MEMORY_LIMIT / PERMIT_SIZE));
+        Semaphore memory = new Semaphore(totalPermits);
+        BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i += 1) {
+            writers.execute(() -> writeAll(queue, memory, failure));
+        }
+
+        try {
+            Set<File> directories = new HashSet<>();
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                if (failure.get() != null) {
+                    break;
+                }
+                File file = Utils.join(root, entry.getKey());
+                makeParent(file, directories);
+                queue.put(read(file, entry.getValue(), memory, totalPermits));
+            }
+        } catch (InterruptedException excp) {
+            failure.compareAndSet(null, new IllegalArgumentException("Checkout interrupted."));
+        } catch (RuntimeException excp) {
+            failure.compareAndSet(null, excp);
+        } finally {
+            try {
+                for (int i = 0; i < threads; i += 1) {
+                    queue.put(DONE);
+                }
+                writers.shutdown();
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException excp) {
+                writers.shutdownNow();
+                failure.compareAndSet(null, new IllegalArgumentException("Checkout interrupted."));
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /* Decode the blob for FILE, waiting until the bytes it needs fit in
+     * MEMORY. Large blobs are left for the writer to stream.
+     */
+    private Item read(File file, String blobID, Semaphore memory, int totalPermits)
+            throws InterruptedException {
+        long stored = store.storedSize(blobID);
+        if (stored > STREAM_THRESHOLD) {
+            return new Item(file, blobID, null, 0, 0);
+        }
+        byte[] contents = store.readRaw(blobID);
+        int offset = 1;
+        if (contents[0] != ObjectStore.BLOB) {
+            /* An old object, which read upgrades, or the wrong type */
+            contents = store.read(blobID, ObjectStore.BLOB);
+            offset = 0;
+        }
+        int permits = Math.min(totalPermits, contents.length / PERMIT_SIZE + 1);
+        memory.acquire(permits);
+        return new Item(file, blobID, contents, offset, permits);
+    }
+
+    /* The loop of a writer thread: create files until told to stop.
+     * After a failure the remaining items are only drained, so the
+     * reader never blocks on a queue nobody takes from.
+     */
+    private void writeAll(BlockingQueue<Item> queue, Semaphore memory,
+                          AtomicReference<RuntimeException> failure) {
+        while (true) {
+            Item item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException excp) {
+                failure.compareAndSet(null, new IllegalArgumentException("Checkout interrupted."));
+                return;
+            }
+            if (item == DONE) {
+                return;
+            }
+            try {
+                if (failure.get() == null) {
+                    writeItem(item);
+                }
+            } catch (RuntimeException excp) {
+                failure.compareAndSet(null, excp);
+            } finally {
+                memory.release(item.permits);
+            }
+        }
+    }
+
+    /* Create the file of ITEM */
+    private void writeItem(Item item) {
+        if (item.contents == null) {
+            store.copyTo(item.blobID, item.file);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(item.file)) {
+            out.write(item.contents, item.offset, item.contents.length - item.offset);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Create the directory of FILE unless it is known to exist */
+    private static void makeParent(File file, Set<File> directories) {
+        File directory = file.getParentFile();
+        if (directories.add(directory) && !directory.isDirectory()) {
+            directory.mkdirs();
+        }
+    }
+}
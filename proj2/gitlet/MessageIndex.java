@@ -0,0 +1,393 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** An index of the commit messages, by commit-graph position, so find
+ *  never has to read a Commit. It answers two questions: which commits
+ *  have exactly this message, from a table of (message hash, position)
+ *  pairs sorted by hash, and which commits have a message containing
+ *  this text, from an inverted index of the trigrams (the runs of three
+ *  UTF-8 bytes) of every message. A text of three bytes or more can
+ *  only be in messages that have all of its trigrams, so only those are
+ *  compared with the text; shorter texts are compared with every message.
+ *
+ *  The index is in two files. The main file covers the first positions
+ *  of the graph and is only ever rewritten whole; it is mapped, so a
+ *  lookup only touches the pages it binary searches. The commits made
+ *  since then are appended to a pending file as they are recorded, and
+ *  are searched one by one. Once there are more than MERGE_LIMIT of
+ *  them (the gitlet.messageIndexMerge property, default 1024), they are
+ *  merged into a new main file.
+ *
+ *  Positions are only meaningful for the graph they came from, so, as in
+ *  ReachabilityBitmaps, the main file records how many positions it
+ *  covers and the id at the last one, and each pending record its id.
+ *  Anything that no longer matches the graph is left out, and the
+ *  messages it held are read again from the commits.
+ *
+ *  Main file layout:  "MIDX" | version | covered positions | 20-byte id
+ *                     of the last covered position | trigram count
+ *                     | message offsets[covered + 1] | message bytes
+ *                     | (message hash | position)[covered], by hash
+ *                     | (trigram | bitmap offset)[trigram count], by trigram
+ *                     | the bitmap of each trigram
+ *  Pending records:   position | 20-byte id | length | message bytes
+ *
+ *  @author Jiehao Guan
+ */
+public class MessageIndex {
+    static final int MAGIC = 0x4d494458; /* "MIDX" */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 4 + PackFile.ID_SIZE + 4;
+
+    /* The most pending messages kept before they are merged */
+    static final int MERGE_LIMIT = Integer.getInteger("gitlet.messageIndexMerge", 1024);
+
+    /* The length in bytes of an indexed run */
+    private static final int GRAM = 3;
+
+    /* The index files */
+    private final File file;
+    private final File pendingFile;
+
+    /* The graph the positions refer to */
+    private final CommitGraph graph;
+
+    /* The main file, or null if there is none */
+    private ByteBuffer main;
+
+    /* The positions covered by the main file */
+    private int covered;
+
+    /* Where the sections of the main file start */
+    private int messagesStart;
+    private int exactStart;
+    private int gramsStart;
+    private int postingsStart;
+    private int gramCount;
+
+    /* The messages of the positions after the main file */
+    private final TreeMap<Integer, String> pending = new TreeMap<>();
+
+    /* The pending positions not in the pending file yet */
+    private final TreeSet<Integer> unsaved = new TreeSet<>();
+
+    /* Whether the pending file holds records that were left out */
+    private boolean pendingStale;
+
+    private MessageIndex(File file, File pendingFile, CommitGraph graph) {
+        this.file = file;
+        this.pendingFile = pendingFile;
+        this.graph = graph;
+    }
+
+    /* Read the index FILE and the PENDINGFILE of GRAPH. Whatever is
+     * missing, corrupt or for a different graph is left out.
+     */
+    public static MessageIndex load(File file, File pendingFile, CommitGraph graph) {
+        MessageIndex result = new MessageIndex(file, pendingFile, graph);
+        if (file.isFile()) {
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                result.parse(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+            } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException excp) {
+                result.main = null;
+                result.covered = 0;
+            }
+        }
+        if (pendingFile.isFile()) {
+            result.readPending(ByteBuffer.wrap(Utils.readContents(pendingFile)));
+        }
+        return result;
+    }
+
+    /* Use BUFFER as the main file if it is valid for the graph */
+    private void parse(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return;
+        }
+        int count = buffer.getInt();
+        byte[] last = new byte[PackFile.ID_SIZE];
+        buffer.get(last);
+        if (count > graph.size() || (count > 0 && !graph.getId(count - 1)
+                .equals(Utils.bytesToHex(last, 0, last.length)))) {
+            return;
+        }
+        gramCount = buffer.getInt();
+        messagesStart = HEADER_SIZE + 4 * (count + 1);
+        exactStart = messagesStart + buffer.getInt(HEADER_SIZE + 4 * count);
+        gramsStart = exactStart + 8 * count;
+        postingsStart = gramsStart + 8 * gramCount;
+        if (postingsStart > buffer.limit()) {
+            throw new BufferUnderflowException();
+        }
+        main = buffer;
+        covered = count;
+    }
+
+    /* Take the records of IN that still match the graph */
+    private void readPending(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            int pos;
+            byte[] id = new byte[PackFile.ID_SIZE];
+            byte[] message;
+            try {
+                pos = in.getInt();
+                in.get(id);
+                message = new byte[in.getInt()];
+                in.get(message);
+            } catch (BufferUnderflowException | NegativeArraySizeException excp) {
+                /* A record cut short by a crash */
+                pendingStale = true;
+                return;
+            }
+            if (pos < covered || pos >= graph.size()
+                    || !graph.getId(pos).equals(Utils.bytesToHex(id, 0, id.length))) {
+                pendingStale = true;
+                continue;
+            }
+            pending.put(pos, new String(message, StandardCharsets.UTF_8));
+        }
+    }
+
+    /* Record MESSAGE as the message of the commit at POS */
+    public void add(int pos, String message) {
+        if (pos >= covered && pending.put(pos, message) == null) {
+            unsaved.add(pos);
+        }
+    }
+
+    /* Add the message of every commit in the graph that is not indexed
+     * yet, reading it from the commit, and write the index
+     */
+    public void update() {
+        for (int pos = covered; pos < graph.size(); pos += 1) {
+            if (!pending.containsKey(pos)) {
+                add(pos, Commit.read(graph.getId(pos)).getMessage());
+            }
+        }
+        if (pending.size() > MERGE_LIMIT) {
+            merge();
+        } else if (pendingStale || !unsaved.isEmpty()) {
+            writePending();
+        }
+    }
+
+    /* Get the positions of the commits whose message is MESSAGE */
+    public Bitmap findExact(String message) {
+        Bitmap result = new Bitmap();
+        if (main != null) {
+            int hash = message.hashCode();
+            int lo = 0;
+            int hi = covered;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (main.getInt(exactStart + 8 * mid) < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < covered && main.getInt(exactStart + 8 * i) == hash; i += 1) {
+                int pos = main.getInt(exactStart + 8 * i + 4);
+                if (message(pos).equals(message)) {
+                    result.add(pos);
+                }
+            }
+        }
+        for (Map.Entry<Integer, String> entry : pending.entrySet()) {
+            if (entry.getValue().equals(message)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /* Get the positions of the commits whose message contains TEXT */
+    public Bitmap findSubstring(String text) {
+        Bitmap result = new Bitmap();
+        if (main != null) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < GRAM) {
+                for (int pos = 0; pos < covered; pos += 1) {
+                    if (message(pos).contains(text)) {
+                        result.add(pos);
+                    }
+                }
+            } else {
+                /* intersect the rarest trigrams first */
+                List<Bitmap> postings = new ArrayList<>();
+                for (int i = 0; i + GRAM <= bytes.length; i += 1) {
+                    postings.add(posting(gram(bytes, i)));
+                }
+                postings.sort(Comparator.comparingInt(Bitmap::cardinality));
+                Bitmap candidates = postings.get(0);
+                for (int i = 1; i < postings.size() && candidates.cardinality() > 0; i += 1) {
+                    candidates = candidates.and(postings.get(i));
+                }
+                candidates.forEach(pos -> {
+                    if (message(pos).contains(text)) {
+                        result.add(pos);
+                    }
+                });
+            }
+        }
+        for (Map.Entry<Integer, String> entry : pending.entrySet()) {
+            if (entry.getValue().contains(text)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /* Get the message at POS of the main file */
+    private String message(int pos) {
+        int start = main.getInt(HEADER_SIZE + 4 * pos);
+        int end = main.getInt(HEADER_SIZE + 4 * (pos + 1));
+        byte[] bytes = new byte[end - start];
+        main.get(messagesStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Get the positions of the main file whose message has the trigram G */
+    private Bitmap posting(int g) {
+        int lo = 0;
+        int hi = gramCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = main.getInt(gramsStart + 8 * mid);
+            if (key == g) {
+                ByteBuffer in = main.duplicate();
+                in.position(postingsStart + main.getInt(gramsStart + 8 * mid + 4));
+                return Bitmap.decode(in);
+            } else if (key < g) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return new Bitmap();
+    }
+
+    /* Get the trigram of BYTES at I */
+    private static int gram(byte[] bytes, int i) {
+        return (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+    }
+
+    /* Append the unsaved pending messages to the pending file, or write
+     * all of them in its place if it holds anything stale
+     */
+    private void writePending() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int pos : pendingStale ? pending.keySet() : unsaved) {
+                byte[] message = pending.get(pos).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(pos);
+                out.write(Utils.hexToBytes(graph.getId(pos)));
+                out.writeInt(message.length);
+                out.write(message);
+            }
+            out.close();
+            if (pendingStale) {
+                Utils.writeAtomically(pendingFile, false, bytes.toByteArray());
+            } else {
+                try (FileOutputStream append = new FileOutputStream(pendingFile, true)) {
+                    bytes.writeTo(append);
+                }
+            }
+            unsaved.clear();
+            pendingStale = false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Write a main file covering every position and empty the pending file */
+    private void merge() {
+        int count = covered + pending.size();
+        byte[][] messages = new byte[count][];
+        for (int pos = 0; pos < covered; pos += 1) {
+            messages[pos] = message(pos).getBytes(StandardCharsets.UTF_8);
+        }
+        for (Map.Entry<Integer, String> entry : pending.entrySet()) {
+            messages[entry.getKey()] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long[] exact = new long[count];
+        Map<Integer, Bitmap> grams = new HashMap<>();
+        for (int pos = 0; pos < count; pos += 1) {
+            String message = new String(messages[pos], StandardCharsets.UTF_8);
+            exact[pos] = (long) message.hashCode() << 32 | pos;
+            for (int i = 0; i + GRAM <= messages[pos].length; i += 1) {
+                grams.computeIfAbsent(gram(messages[pos], i), k -> new Bitmap()).add(pos);
+            }
+        }
+        Arrays.sort(exact);
+        int[] keys = grams.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+
+        try {
+            ByteArrayOutputStream postings = new ByteArrayOutputStream();
+            DataOutputStream postingsOut = new DataOutputStream(postings);
+            int[] offsets = new int[keys.length];
+            for (int i = 0; i < keys.length; i += 1) {
+                offsets[i] = postingsOut.size();
+                grams.get(keys[i]).encode(postingsOut);
+            }
+            postingsOut.close();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.write(count == 0 ? new byte[PackFile.ID_SIZE]
+                    : Utils.hexToBytes(graph.getId(count - 1)));
+            out.writeInt(keys.length);
+            int offset = 0;
+            for (byte[] message : messages) {
+                out.writeInt(offset);
+                offset += message.length;
+            }
+            out.writeInt(offset);
+            for (byte[] message : messages) {
+                out.write(message);
+            }
+            for (long entry : exact) {
+                out.writeLong(entry);
+            }
+            for (int i = 0; i < keys.length; i += 1) {
+                out.writeInt(keys[i]);
+                out.writeInt(offsets[i]);
+            }
+            postings.writeTo(out);
+            out.close();
+
+            byte[] contents = bytes.toByteArray();
+            Utils.writeAtomically(file, false, contents);
+            pendingFile.delete();
+            pending.clear();
+            unsaved.clear();
+            pendingStale = false;
+            parse(ByteBuffer.wrap(contents));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
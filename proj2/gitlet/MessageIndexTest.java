@@ -0,0 +1,170 @@
+package gitlet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** Tests of the index of the commit messages, MessageIndex: its trigram
+ *  candidates and the check of each against the text, its pending file,
+ *  and what it leaves out once the commit graph changes under it.
+ *  @author Jiehao Guan
+ */
+public class MessageIndexTest {
+    /* The texts looked up. "Aa" and "BB" have the same hash code, and
+     * every trigram of "abcd" is in "abcXbcd", which does not contain it.
+     */
+    private static final String[] QUERIES = {
+        "Aa", "BB", "abcd", "abcXbcd", "bcd", "message 1", "message 12",
+        "message 1024", "na\u00efve", "\u00ef", "ve ca", "fix", "x", "", "nowhere",
+        "initial commit",
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Get the message of the commit at POS */
+    private static String message(int pos) {
+        switch (pos % 7) {
+            case 0:
+                return pos % 2 == 0 ? "Aa" : "BB";
+            case 1:
+                return "abcXbcd " + pos;
+            case 2:
+                return "na\u00efve caf\u00e9 " + pos;
+            case 3:
+                return "fix bug";
+            default:
+                return "message " + pos;
+        }
+    }
+
+    /* Get the index of a graph of N commits, with every message added */
+    private MessageIndex index(int n, String salt) throws IOException {
+        File graphFile = new File(folder.getRoot(), "commit-graph");
+        ReachabilityBitmapsTest.writeGraph(graphFile, ReachabilityBitmapsTest.chain(n), salt);
+        MessageIndex index = load(graphFile);
+        for (int pos = 0; pos < n; pos += 1) {
+            index.add(pos, message(pos));
+        }
+        index.update();
+        return index;
+    }
+
+    private MessageIndex load(File graphFile) {
+        return MessageIndex.load(new File(folder.getRoot(), "message-index"),
+                pendingFile(), CommitGraph.load(graphFile));
+    }
+
+    private File pendingFile() {
+        return new File(folder.getRoot(), "message-index-pending");
+    }
+
+    /* Check INDEX answers every query as a scan of the N messages does */
+    private static void assertFinds(MessageIndex index, int n) {
+        for (String query : QUERIES) {
+            List<Integer> exact = new ArrayList<>();
+            List<Integer> substring = new ArrayList<>();
+            for (int pos = 0; pos < n; pos += 1) {
+                if (message(pos).equals(query)) {
+                    exact.add(pos);
+                }
+                if (message(pos).contains(query)) {
+                    substring.add(pos);
+                }
+            }
+            assertArrayEquals("exact " + query, exact.stream().mapToInt(i -> i).toArray(),
+                    index.findExact(query).toArray());
+            assertArrayEquals("substring " + query,
+                    substring.stream().mapToInt(i -> i).toArray(),
+                    index.findSubstring(query).toArray());
+        }
+    }
+
+    @Test
+    /** Messages kept in the pending file are found */
+    public void pendingMessagesAreFound() throws IOException {
+        int n = 100;
+        assertFinds(index(n, "a"), n);
+        assertTrue(pendingFile().isFile());
+        assertFinds(load(new File(folder.getRoot(), "commit-graph")), n);
+    }
+
+    @Test
+    /** Past MERGE_LIMIT pending messages go to the main file, where the
+     *  candidates of the trigrams are each checked against the text */
+    public void mainFileMessagesAreFound() throws IOException {
+        int n = MessageIndex.MERGE_LIMIT + 500;
+        assertFinds(index(n, "a"), n);
+        assertFalse(pendingFile().exists());
+        assertFinds(load(new File(folder.getRoot(), "commit-graph")), n);
+    }
+
+    @Test
+    /** Commits after the main file are pending, and found with it */
+    public void mainAndPendingAreFound() throws IOException {
+        int n = MessageIndex.MERGE_LIMIT + 500;
+        index(n, "a");
+        assertFinds(index(n + 40, "a"), n + 40);
+        assertTrue(pendingFile().isFile());
+        assertFinds(load(new File(folder.getRoot(), "commit-graph")), n + 40);
+    }
+
+    @Test
+    /** An index of another graph, as when gc rebuilt the graph without
+     *  the commits it deleted, finds nothing at the old positions */
+    public void otherGraphIsLeftOut() throws IOException {
+        File graphFile = new File(folder.getRoot(), "commit-graph");
+        int n = MessageIndex.MERGE_LIMIT + 500;
+        index(n + 40, "a");
+
+        ReachabilityBitmapsTest.writeGraph(graphFile, ReachabilityBitmapsTest.chain(n + 40), "b");
+        MessageIndex other = load(graphFile);
+        for (String query : QUERIES) {
+            assertEquals(0, other.findExact(query).cardinality());
+            assertEquals(0, other.findSubstring(query).cardinality());
+        }
+
+        /* the same commits, but fewer of them than the main file covers */
+        ReachabilityBitmapsTest.writeGraph(graphFile, ReachabilityBitmapsTest.chain(n - 1), "a");
+        assertEquals(0, load(graphFile).findExact("fix bug").cardinality());
+    }
+
+    @Test
+    /** Pending records whose commit moved are left out, and the rest kept */
+    public void movedPendingRecordsAreLeftOut() throws IOException {
+        File graphFile = new File(folder.getRoot(), "commit-graph");
+        index(100, "a");
+        int[][] parents = ReachabilityBitmapsTest.chain(100);
+        ReachabilityBitmapsTest.writeGraph(graphFile, parents, "a");
+        String[] ids = ReachabilityBitmapsTest.writeGraph(
+                new File(folder.getRoot(), "other-graph"), parents, "b");
+
+        /* swap in another commit at position 3 */
+        byte[] graph = Utils.readContents(graphFile);
+        byte[] id = Utils.hexToBytes(ids[3]);
+        System.arraycopy(id, 0, graph, CommitGraph.HEADER_SIZE + 3 * CommitGraph.RECORD_SIZE,
+                id.length);
+        Utils.writeContents(graphFile, (Object) graph);
+
+        MessageIndex moved = load(graphFile);
+        for (String query : QUERIES) {
+            List<Integer> exact = new ArrayList<>();
+            for (int pos = 0; pos < 100; pos += 1) {
+                if (pos != 3 && message(pos).equals(query)) {
+                    exact.add(pos);
+                }
+            }
+            assertArrayEquals("exact " + query, exact.stream().mapToInt(i -> i).toArray(),
+                    moved.findExact(query).toArray());
+        }
+        assertFalse(moved.findExact("fix bug").contains(3));
+        assertTrue(moved.findExact("fix bug").contains(10));
+    }
+}
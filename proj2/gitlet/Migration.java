@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/** Reads objects written by older versions of gitlet and rewrites them in
+ *  the current format.
+ *
+ *  Older repositories stored commits (and, before objects had a type
+ *  byte, blobs) with Java serialization. Those objects can still be read
+ *  transparently through upgrade(), and the migrate command rewrites all
+ *  of them once so later reads no longer pay for the conversion. Object
+ *  ids do not change, so branch heads stay valid.
+ *
+ *  @author Jiehao Guan
+ */
+public class Migration {
+    /* The first byte of a Java serialization stream */
+    private static final byte STREAM_MAGIC = (byte) 0xac;
+
+    /* The fields of the old serialized gitlet.Commit, and the default
+     * serialVersionUID that class had
+     */
+    private static class LegacyCommit implements Serializable {
+        private static final long serialVersionUID = 7157252639514007105L;
+
+        private Date date;
+        private String time;
+        private ArrayList<String> parents;
+        private Map<String, String> blobs;
+        private String sha1ID;
+        private String message;
+        private File file;
+    }
+
+    /* The fields of the old serialized gitlet.Blob, and the default
+     * serialVersionUID that class had
+     */
+    private static class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = 4588412191378629131L;
+
+        private String filename;
+        private byte[] content;
+    }
+
+    /* Reads the old classes into their Legacy stand-ins. The stand-ins
+     * have the same fields, so the stream's field data lines up with them.
+     */
+    private static class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            switch (desc.getName()) {
+                case "gitlet.Commit":
+                    return ObjectStreamClass.lookup(LegacyCommit.class);
+                case "gitlet.Blob":
+                    return ObjectStreamClass.lookup(LegacyBlob.class);
+                default:
+                    return desc;
+            }
+        }
+    }
+
+    /* Check if STORED, the stored bytes of an object, is in an old format:
+     * either a bare serialization stream or a commit whose payload is one
+     */
+    public static boolean isLegacy(byte[] stored) {
+        return stored.length > 1 && (stored[0] == STREAM_MAGIC
+                || (stored[0] == ObjectStore.COMMIT && stored[1] == STREAM_MAGIC));
+    }
+
+    /* Convert the legacy object ID into its stored bytes in the current
+     * format, type byte included
+     */
+    public static byte[] upgrade(String id, byte[] stored) {
+        int start = stored[0] == STREAM_MAGIC ? 0 : 1;
+        Object obj;
+        try (ObjectInputStream in = new LegacyInputStream(
+                new ByteArrayInputStream(stored, start, stored.length - start))) {
+            obj = in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw Utils.error("Cannot read the old object %s: %s", id, excp.getMessage());
+        }
+
+        byte[] payload;
+        byte type;
+        if (obj instanceof LegacyCommit) {
+            LegacyCommit old = (LegacyCommit) obj;
+            payload = Commit.fromLegacy(id, old.date, old.time, old.message,
+                    old.parents, old.blobs).encode();
+            type = ObjectStore.COMMIT;
+        } else if (obj instanceof LegacyBlob) {
+            payload = ((LegacyBlob) obj).content;
+            type = ObjectStore.BLOB;
+        } else {
+            throw Utils.error("Unknown old object %s.", id);
+        }
+        byte[] result = new byte[payload.length + 1];
+        result[0] = type;
+        System.arraycopy(payload, 0, result, 1, payload.length);
+        return result;
+    }
+
+    /* Rewrite every legacy object of STORE in the current format.
+     * Returns the number of objects rewritten.
+     */
+    public static int migrate(ObjectStore store) {
+        int count = 0;
+        boolean packed = false;
+        List<String> ids = new ArrayList<>(store.looseIds());
+        for (PackFile pack : store.getPacks()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                ids.add(pack.idAt(i));
+            }
+        }
+        for (String id : ids) {
+            byte[] stored = store.readRaw(id);
+            if (!isLegacy(stored)) {
+                continue;
+            }
+            byte[] upgraded = upgrade(id, stored);
+            packed |= !store.looseFile(id).isFile();
+            store.writeLoose(id, upgraded);
+            count += 1;
+        }
+
+        /* Loose copies shadow the packed ones, fold them back in */
+        if (packed) {
+            store.repack();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** Represents a raw 20-byte SHA-1 object id.
+ *  Lookup tables keyed by ObjectId hash and compare the raw bytes, so
+ *  they never have to build or compare 40-character hex strings.
+ *
+ *  @author Jiehao Guan
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+    /* The number of bytes in an id */
+    static final int SIZE = 20;
+
+    private final byte[] bytes;
+
+    private ObjectId(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /* Get the id whose raw bytes start at OFFSET in BYTES */
+    public static ObjectId fromBytes(byte[] bytes, int offset) {
+        return new ObjectId(Arrays.copyOfRange(bytes, offset, offset + SIZE));
+    }
+
+    /* Get the id written as the hexadecimal numeral HEX */
+    public static ObjectId fromHex(String hex) {
+        if (hex.length() != Utils.UID_LENGTH) {
+            throw Utils.error("Not a full object id: %s", hex);
+        }
+        return new ObjectId(Utils.hexToBytes(hex));
+    }
+
+    /* Copy the raw bytes into DEST at OFFSET */
+    public void copyTo(byte[] dest, int offset) {
+        System.arraycopy(bytes, 0, dest, offset, SIZE);
+    }
+
+    /* Get the byte at I, as an unsigned value */
+    public int getByte(int i) {
+        return bytes[i] & 0xff;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ObjectId && Arrays.equals(bytes, ((ObjectId) other).bytes);
+    }
+
+    /* The bytes of a SHA-1 are already uniformly distributed */
+    @Override
+    public int hashCode() {
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16)
+                | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        return Arrays.compareUnsigned(bytes, other.bytes);
+    }
+
+    /* Get the id as a lower-case hexadecimal numeral */
+    @Override
+    public String toString() {
+        return Utils.bytesToHex(bytes, 0, SIZE);
+    }
+}
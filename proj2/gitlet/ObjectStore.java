@@ -0,0 +1,1029 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/** Represents the object database of a gitlet repository.
+ *  Objects live either loose, one file each under Objects/xx/yyyy...,
+ *  or packed under Objects/pack (see PackFile). Reads look at the loose
+ *  objects first and then at the packs, so both can be used side by side.
+ *
+ *  Every object starts with a one-byte type, followed by its payload.
+ *  A blob's payload is the file content itself. Objects are stored, loose
+ *  and packed alike, as a zlib stream of those bytes, deflated at the
+ *  level set by the gitlet.compression property (default 6, 0 stores
+ *  objects uncompressed). A zlib stream starts with 0x78, which no type
+ *  byte does, so compressed and uncompressed objects can be told apart
+ *  and stores written before compression existed still read. Blobs are
+ *  inflated straight into the working directory, never onto the heap.
+ *
+ *  Repack stores an object that is similar to another one of the same
+ *  pack as a delta against it (see Delta): the DELTA byte, the 20-byte
+ *  id of the base, and the deflated delta. Bases are picked among the
+ *  objects of the same type with the same or a close name in a tree and
+ *  a similar size, and chains of deltas are kept at most DELTA_DEPTH
+ *  long. Rebuilt bases are kept in a DeltaBaseCache, so reading many
+ *  versions of the same file only rebuilds each base once.
+ *
+ *  Prune is the sweep of gc: it repacks the live objects of the old
+ *  packs and loose files, leaves recent ones where they are, and deletes
+ *  everything else.
+ *
+ *  A command writes its objects in a batch: between beginBatch and
+ *  commitBatch all new objects go into one pack, which is synced once and
+ *  renamed into place before any ref is moved to them. A batch of fewer
+ *  than PACK_THRESHOLD objects, such as a commit of a few files, is
+ *  written out as loose objects instead, since a pack and its index cost
+ *  more than a kilobyte whatever they hold. Loose objects are written to
+ *  a temporary file and renamed, so a crash never leaves a half written
+ *  object behind.
+ *
+ *  @author Jiehao Guan
+ */
+public class ObjectStore {
+    /* The object types */
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte TREE = 3;
+
+    /* The first byte of a packed delta, which is not an object type */
+    static final byte DELTA = 4;
+
+    /* The number of earlier objects each object is tried against as a base */
+    static final int DELTA_WINDOW = Integer.getInteger("gitlet.deltaWindow", 10);
+
+    /* The longest chain of deltas an object may be at the end of */
+    static final int DELTA_DEPTH = Integer.getInteger("gitlet.deltaDepth", 50);
+
+    /* Objects smaller than this are never stored as deltas */
+    private static final int MIN_DELTA_SIZE = 64;
+
+    /* The number of objects from which a batch is written as a pack */
+    static final int PACK_THRESHOLD = Integer.getInteger("gitlet.packThreshold", 64);
+
+    /* The number of packs commitBatch lets pile up before repacking */
+    static final int AUTO_PACK_LIMIT = Integer.getInteger("gitlet.autoPackLimit", 50);
+
+    /* Objects larger than this are copied by repack as they are stored,
+     * and never stored as deltas
+     */
+    private static final long STREAM_THRESHOLD = 1024 * 1024;
+
+    /* Files up to this size are deflated in memory before joining a batch */
+    private static final int BATCH_BUFFER_LIMIT = 1024 * 1024;
+
+    /* The zlib level objects are deflated with */
+    static final int LEVEL = Integer.getInteger("gitlet.compression", 6);
+
+    /* The first byte of every zlib stream with the default window */
+    private static final byte ZLIB_HEADER = 0x78;
+
+    /* The size of the buffers objects are inflated through */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* The Objects directory */
+    private final File objectsDir;
+
+    /* The directory of the packs */
+    private final File packDir;
+
+    /* The packs of this store, loaded the first time they are needed */
+    private List<PackFile> packs;
+
+    /* The pack the current batch writes to, created on its first object */
+    private PackWriter batch;
+
+    /* Whether new objects go to a batch instead of loose files */
+    private boolean batching;
+
+    /* The modification time of the pack directory when the packs were
+     * listed, or null if it did not exist
+     */
+    private FileTime packsListedAt;
+
+    /* The recently rebuilt delta bases */
+    private final DeltaBaseCache baseCache = new DeltaBaseCache();
+
+    public ObjectStore(File objectsDir) {
+        this.objectsDir = objectsDir;
+        this.packDir = Utils.join(objectsDir, "pack");
+    }
+
+    /* Get the loose file of the object ID */
+    public File looseFile(String id) {
+        return Utils.join(objectsDir, Utils.getDirectoryName(id), Utils.getFileName(id));
+    }
+
+    /* Get the packs of this store */
+    public synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            packsListedAt = packDirTime();
+            File[] idxFiles = packDir.listFiles((dir, name) -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File idx : idxFiles) {
+                    packs.add(new PackFile(idx));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /* Get the modification time of the pack directory, or null */
+    private FileTime packDirTime() {
+        try {
+            return Files.getLastModifiedTime(packDir.toPath());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /* List the packs again if another process added or deleted one since
+     * they were listed. A long-running process calls this between commands.
+     */
+    public synchronized void refresh() {
+        if (packs != null && !Objects.equals(packsListedAt, packDirTime())) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    /* Check if the object exists, loose, packed or in the current batch */
+    public boolean contains(String id) {
+        /* a short or malformed id, as typed by a user, names nothing */
+        if (!Utils.isObjectId(id)) {
+            return false;
+        }
+        if (looseFile(id).exists()) {
+            return true;
+        }
+        PackWriter writer = currentBatch();
+        if (writer != null && writer.contains(id)) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Read the bytes of the object ID as they are on disk, which may be
+     * deflated
+     */
+    public byte[] readStored(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        for (PackFile pack : getPacks()) {
+            byte[] contents = pack.read(id);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        PackWriter writer = currentBatch();
+        byte[] contents = writer == null ? null : writer.read(id);
+        if (contents != null) {
+            return contents;
+        }
+        throw Utils.error("No object with id %s.", id);
+    }
+
+    /* Get the size of the object ID as it is stored, or -1 if it is only
+     * in the current batch
+     */
+    public long storedSize(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return loose.length();
+        }
+        for (PackFile pack : getPacks()) {
+            ByteBuffer entry = pack.slice(id);
+            if (entry != null) {
+                return entry.remaining();
+            }
+        }
+        if (contains(id)) {
+            return -1;
+        }
+        throw Utils.error("No object with id %s.", id);
+    }
+
+    /* Read the bytes of the object ID, inflated, type byte included */
+    public byte[] readRaw(String id) {
+        byte[] stored = readStored(id);
+        if (isDelta(stored)) {
+            return resolveDelta(id, stored);
+        }
+        return isDeflated(stored) ? inflate(ByteBuffer.wrap(stored)) : stored;
+    }
+
+    /* Rebuild the object ID from its STORED delta, following the chain of
+     * bases until one is cached or is not a delta itself. Every object
+     * rebuilt on the way is the base of another one, so it is cached.
+     */
+    private byte[] resolveDelta(String id, byte[] stored) {
+        Deque<String> ids = new ArrayDeque<>();
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        String current = id;
+        byte[] raw = null;
+        while (raw == null) {
+            ids.push(current);
+            deltas.push(inflate(ByteBuffer.wrap(stored, 1 + PackFile.ID_SIZE,
+                    stored.length - 1 - PackFile.ID_SIZE)));
+            current = Utils.bytesToHex(stored, 1, PackFile.ID_SIZE);
+            raw = baseCache.get(current);
+            if (raw == null) {
+                stored = readStored(current);
+                if (!isDelta(stored)) {
+                    raw = isDeflated(stored) ? inflate(ByteBuffer.wrap(stored)) : stored;
+                    baseCache.put(current, raw);
+                }
+            }
+        }
+        while (!deltas.isEmpty()) {
+            raw = Delta.apply(raw, deltas.pop());
+            String rebuilt = ids.pop();
+            if (!ids.isEmpty()) {
+                baseCache.put(rebuilt, raw);
+            }
+        }
+        return raw;
+    }
+
+    /* Read the payload of the object ID, which must be of TYPE */
+    public byte[] read(String id, byte type) {
+        byte[] stored = readRaw(id);
+        if (Migration.isLegacy(stored)) {
+            stored = Migration.upgrade(id, stored);
+        }
+        checkType(id, stored[0], type);
+        byte[] payload = new byte[stored.length - 1];
+        System.arraycopy(stored, 1, payload, 0, payload.length);
+        return payload;
+    }
+
+    /* Stream the content of the blob ID into TARGET, creating or
+     * overwriting it. The blob is never read onto the heap: loose blobs
+     * and packed blobs alike are copied with FileChannel.transferTo.
+     */
+    public void copyTo(String id, File target) {
+        File loose = looseFile(id);
+        PackFile source = null;
+        if (!loose.isFile()) {
+            for (PackFile pack : getPacks()) {
+                if (pack.contains(id)) {
+                    source = pack;
+                    break;
+                }
+            }
+            if (source == null) {
+                /* Only in the current batch, so not worth streaming */
+                Utils.writeContents(target, read(id, BLOB));
+                return;
+            }
+        }
+
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (source != null) {
+                ByteBuffer stored = source.slice(id);
+                if (stored.get(0) == ZLIB_HEADER) {
+                    if (!inflateBlobTo(stored, out)) {
+                        out.write(ByteBuffer.wrap(read(id, BLOB)));
+                    }
+                    return;
+                }
+                if (stored.get(0) != BLOB) {
+                    out.write(ByteBuffer.wrap(read(id, BLOB)));
+                    return;
+                }
+                source.transferTo(id, 1, out);
+                return;
+            }
+            try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer type = ByteBuffer.allocate(1);
+                in.read(type, 0);
+                if (type.get(0) == ZLIB_HEADER) {
+                    if (!inflateBlobTo(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()), out)) {
+                        out.write(ByteBuffer.wrap(read(id, BLOB)));
+                    }
+                    return;
+                }
+                if (type.get(0) != BLOB) {
+                    /* An old object, or the wrong type, which read reports */
+                    out.write(ByteBuffer.wrap(read(id, BLOB)));
+                    return;
+                }
+                long position = 1;
+                long remaining = in.size() - 1;
+                while (remaining > 0) {
+                    long sent = in.transferTo(position, remaining, out);
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Save the object ID of TYPE as a loose object, unless it already exists */
+    public void write(String id, byte type, byte[] payload) {
+        if (contains(id)) {
+            return;
+        }
+        PackWriter writer = batchWriter();
+        if (writer != null) {
+            writer.add(id, LEVEL == 0 ? concat(new byte[] {type}, payload)
+                    : deflate(new byte[] {type}, payload));
+            return;
+        }
+        writeLoose(id, new byte[] {type}, payload);
+    }
+
+    /* Write the concatenation of PARTS as the loose object ID, deflated,
+     * replacing any loose copy there already is
+     */
+    public void writeLoose(String id, byte[]... parts) {
+        File file = looseFile(id);
+        File directory = file.getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        Utils.writeAtomically(file, false, LEVEL == 0 ? concat(parts) : deflate(parts));
+    }
+
+    /* Save the contents of SOURCE as the object ID of TYPE, streaming the
+     * file instead of reading it into memory first. In a batch, small
+     * files are deflated before taking the batch's lock, so threads adding
+     * files at once only wait for each other to append.
+     */
+    public void write(String id, byte type, File source) {
+        if (contains(id)) {
+            return;
+        }
+        PackWriter writer = batchWriter();
+        if (writer != null) {
+            if (source.length() <= BATCH_BUFFER_LIMIT) {
+                byte[] contents = Utils.readContents(source);
+                writer.add(id, LEVEL == 0 ? concat(new byte[] {type}, contents)
+                        : deflate(new byte[] {type}, contents));
+            } else {
+                writer.add(id, out -> writeStored(out, type, source));
+            }
+            return;
+        }
+
+        File file = looseFile(id);
+        File directory = file.getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, objectsDir);
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                writeStored(out, type, source);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Copy the blob ID from the store SOURCE, unless it already exists.
+     * The blob is streamed out of SOURCE into a temporary file and from
+     * there into this store, so it is never read onto the heap.
+     */
+    public void copyBlob(ObjectStore source, String id) {
+        if (contains(id)) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, objectsDir);
+            source.copyTo(id, tmp);
+            write(id, BLOB, tmp);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /* Write the TYPE byte and the contents of SOURCE to OUT as they are
+     * stored, deflated unless LEVEL is 0
+     */
+    private static void writeStored(OutputStream out, byte type, File source)
+            throws IOException {
+        if (LEVEL == 0) {
+            out.write(type);
+            Files.copy(source.toPath(), out);
+            return;
+        }
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            deflated.write(type);
+            Files.copy(source.toPath(), deflated);
+            deflated.finish();
+            deflated.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /* Start writing every new object into one pack, which is synced and
+     * moved into place by commitBatch. Objects of the batch can be read
+     * as soon as they are written.
+     */
+    public synchronized void beginBatch() {
+        batching = true;
+    }
+
+    /* Finish the batch: sync its pack once and move it into place, or
+     * write its objects loose if there are fewer than PACK_THRESHOLD.
+     * Once this returns, every object of the batch is on disk, so refs
+     * may point at them. Repacks when there are more than AUTO_PACK_LIMIT
+     * packs, so large batches do not pile up.
+     */
+    public void commitBatch() {
+        PackWriter writer;
+        synchronized (this) {
+            writer = batch;
+            batch = null;
+            batching = false;
+        }
+        if (writer == null) {
+            return;
+        }
+        if (writer.size() < PACK_THRESHOLD) {
+            unpack(writer);
+            return;
+        }
+        PackFile pack = writer.finish();
+        if (pack != null) {
+            List<PackFile> current = getPacks();
+            synchronized (this) {
+                current.add(pack);
+            }
+            if (current.size() > AUTO_PACK_LIMIT) {
+                repack();
+            }
+        }
+    }
+
+    /* Write the objects of the unfinished pack WRITER as loose objects,
+     * each synced, and throw the pack away
+     */
+    private void unpack(PackWriter writer) {
+        Set<File> directories = new HashSet<>();
+        for (String id : writer.ids()) {
+            File file = looseFile(id);
+            File directory = file.getParentFile();
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            File tmp = null;
+            try {
+                tmp = File.createTempFile("tmp-", null, objectsDir);
+                try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                    writer.transferTo(id, out);
+                    out.force(true);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                if (tmp != null) {
+                    tmp.delete();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            directories.add(directory);
+        }
+        for (File directory : directories) {
+            Utils.syncDirectory(directory);
+        }
+        writer.abort();
+    }
+
+    /* Throw away the objects of the batch */
+    public synchronized void abortBatch() {
+        if (batch != null) {
+            batch.abort();
+            batch = null;
+        }
+        batching = false;
+    }
+
+    /* Get the pack of the current batch, starting it on the first write,
+     * or null outside of a batch
+     */
+    private synchronized PackWriter batchWriter() {
+        if (batching && batch == null) {
+            batch = new PackWriter(packDir);
+        }
+        return batch;
+    }
+
+    /* Get the pack of the current batch if it has been started */
+    private synchronized PackWriter currentBatch() {
+        return batch;
+    }
+
+    /* Check if the STORED bytes of an object are a packed delta */
+    static boolean isDelta(byte[] stored) {
+        return stored.length > 0 && stored[0] == DELTA;
+    }
+
+    /* Check if the STORED bytes of an object are a zlib stream */
+    static boolean isDeflated(byte[] stored) {
+        return stored.length > 0 && stored[0] == ZLIB_HEADER;
+    }
+
+    /* Deflate the concatenation of PARTS at LEVEL */
+    static byte[] deflate(byte[]... parts) {
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+                for (byte[] part : parts) {
+                    out.write(part);
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /* Inflate the zlib stream in STORED */
+    static byte[] inflate(ByteBuffer stored) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(4 * stored.remaining());
+        inflate(stored, buffer -> result.write(buffer.array(), 0, buffer.limit()));
+        return result.toByteArray();
+    }
+
+    /* Receives the inflated bytes of an object, one buffer at a time */
+    private interface InflatedBytes {
+        void accept(ByteBuffer buffer) throws IOException;
+    }
+
+    /* Inflate the zlib stream in STORED, passing the output to OUT */
+    private static void inflate(ByteBuffer stored, InflatedBytes out) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            /* Small objects do not need the whole buffer */
+            int size = (int) Math.min(BUFFER_SIZE, Math.max(4096L, 4L * stored.remaining()));
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (!inflater.finished()) {
+                if (inflater.inflate(buffer) == 0
+                        && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw Utils.error("Corrupt object: truncated zlib stream.");
+                }
+                buffer.flip();
+                out.accept(buffer);
+                buffer.clear();
+            }
+        } catch (DataFormatException | IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /* Inflate the blob in STORED into OUT without its type byte. Returns
+     * false, having written nothing, if the object is not a blob.
+     */
+    private static boolean inflateBlobTo(ByteBuffer stored, WritableByteChannel out) {
+        boolean[] first = {true};
+        boolean[] isBlob = {true};
+        inflate(stored, buffer -> {
+            if (first[0] && buffer.hasRemaining()) {
+                first[0] = false;
+                isBlob[0] = buffer.get() == BLOB;
+            }
+            while (isBlob[0] && buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        });
+        return isBlob[0];
+    }
+
+    /* Get the concatenation of PARTS */
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    /* Inflate at most N bytes from the start of the zlib stream in STORED */
+    private static byte[] inflateHead(ByteBuffer stored, int n) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] head = new byte[n];
+            int length = 0;
+            while (length < n && !inflater.finished()) {
+                int inflated = inflater.inflate(head, length, n - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw Utils.error("Corrupt object: truncated zlib stream.");
+                }
+                length += inflated;
+            }
+            return Arrays.copyOf(head, length);
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /* Get the inflated size of the STORED bytes of an object */
+    private static long rawSize(ByteBuffer stored) {
+        if (stored.remaining() == 0 || stored.get(stored.position()) != ZLIB_HEADER) {
+            return stored.remaining();
+        }
+        long[] size = {0};
+        inflate(stored, buffer -> size[0] += buffer.remaining());
+        return size[0];
+    }
+
+    /* Make sure the object ID is of the EXPECTED type */
+    private static void checkType(String id, byte actual, byte expected) {
+        if (actual != expected) {
+            throw Utils.error("Object %s has type %d, expected %d.", id, actual, expected);
+        }
+    }
+
+    /* Get the ids of all the loose objects */
+    public List<String> looseIds() {
+        List<String> ids = new ArrayList<>();
+        File[] dirs = objectsDir.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return ids;
+        }
+        for (File dir : dirs) {
+            if (dir.getName().length() != 2) {
+                continue;
+            }
+            for (String name : Utils.plainFilenamesIn(dir)) {
+                ids.add(dir.getName() + name);
+            }
+        }
+        return ids;
+    }
+
+    /* The object counts and sizes reported by count-objects */
+    static class Counts {
+        int loose;
+        long looseSize;
+        long looseRawSize;
+        int packs;
+        int packed;
+        int deltas;
+        long packSize;
+        long packedRawSize;
+    }
+
+    /* Count the objects of the store and measure their size on disk and
+     * once inflated. Every object is inflated, so this reads the whole store.
+     */
+    public Counts count() {
+        Counts counts = new Counts();
+        for (String id : looseIds()) {
+            File file = looseFile(id);
+            byte[] stored = Utils.readContents(file);
+            counts.loose += 1;
+            counts.looseSize += stored.length;
+            counts.looseRawSize += rawSize(ByteBuffer.wrap(stored));
+        }
+        for (PackFile pack : getPacks()) {
+            counts.packs += 1;
+            counts.packSize += pack.getPackFile().length() + pack.getIdxFile().length();
+            for (int i = 0; i < pack.size(); i += 1) {
+                ByteBuffer stored = pack.sliceIndexed(i);
+                counts.packed += 1;
+                if (stored.get(0) == DELTA) {
+                    counts.deltas += 1;
+                    counts.packedRawSize += readRaw(pack.idAt(i)).length;
+                } else {
+                    counts.packedRawSize += rawSize(stored);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /* An object being repacked */
+    private static class PackEntry {
+        final String id;
+        final byte type;
+        final long size;
+        /* Whether it is stored as a delta, so it must be rebuilt to copy */
+        final boolean delta;
+        String name = "";
+        int depth;
+        /* The inflated object, only kept while it is in the delta window */
+        byte[] raw;
+
+        PackEntry(String id, byte type, long size, boolean delta) {
+            this.id = id;
+            this.type = type;
+            this.size = size;
+            this.delta = delta;
+        }
+
+        /* Check if the object may be stored as or used as a delta */
+        boolean deltable() {
+            return (type == BLOB || type == TREE) && size >= MIN_DELTA_SIZE
+                    && size <= STREAM_THRESHOLD;
+        }
+
+        /* Check if the stored bytes are copied as they are */
+        boolean streamed() {
+            return size > STREAM_THRESHOLD && !delta;
+        }
+    }
+
+    /* Get a view of the stored bytes of the object ID. Large loose objects
+     * are mapped and packed ones are slices of their pack, so neither is
+     * read onto the heap.
+     */
+    private ByteBuffer storedView(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            if (loose.length() <= STREAM_THRESHOLD) {
+                return ByteBuffer.wrap(Utils.readContents(loose));
+            }
+            try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            ByteBuffer entry = pack.slice(id);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return ByteBuffer.wrap(readStored(id));
+    }
+
+    /* Get the type and inflated size of the object ID for repack, without
+     * holding it whole on the heap: its stream is inflated through a small
+     * buffer and counted. A delta has the size in its header and the type
+     * of the end of its chain of bases.
+     */
+    private PackEntry readEntry(String id) {
+        ByteBuffer stored = storedView(id);
+        boolean delta = stored.hasRemaining() && stored.get(0) == DELTA;
+        long size = -1;
+        while (stored.hasRemaining() && stored.get(0) == DELTA) {
+            byte[] base = new byte[PackFile.ID_SIZE];
+            stored.get(1, base);
+            if (size < 0) {
+                ByteBuffer body = stored.slice(1 + PackFile.ID_SIZE,
+                        stored.remaining() - 1 - PackFile.ID_SIZE);
+                size = Delta.targetSize(inflateHead(body, Delta.HEADER_MAX));
+            }
+            stored = storedView(Utils.bytesToHex(base, 0, PackFile.ID_SIZE));
+        }
+        byte type;
+        if (!stored.hasRemaining() || stored.get(0) != ZLIB_HEADER) {
+            type = stored.hasRemaining() ? stored.get(0) : 0;
+        } else {
+            byte[] head = inflateHead(stored.duplicate(), 1);
+            type = head.length > 0 ? head[0] : 0;
+        }
+        if (size < 0) {
+            size = rawSize(stored);
+        }
+        return new PackEntry(id, type, size, delta);
+    }
+
+    /* Write the stored bytes of the object ID to OUT as they are */
+    private void copyStored(String id, OutputStream out) throws IOException {
+        ByteBuffer stored = storedView(id);
+        byte[] chunk = new byte[Math.min(BUFFER_SIZE, stored.remaining())];
+        while (stored.hasRemaining()) {
+            int length = Math.min(chunk.length, stored.remaining());
+            stored.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    /* Fold every loose object and every existing pack into a single new
+     * pack, then delete what was folded in. Each object is tried as a
+     * delta against the DELTA_WINDOW objects before it, with objects
+     * sorted by type, name and then size, largest first, so the versions
+     * of one file end up next to each other and the newest, usually the
+     * largest, is the one stored whole.
+     * Returns the number of objects in the new pack.
+     */
+    public int repack() {
+        List<String> loose = looseIds();
+        List<PackFile> oldPacks = new ArrayList<>(getPacks());
+        if (loose.isEmpty() && oldPacks.size() <= 1) {
+            return oldPacks.isEmpty() ? 0 : oldPacks.get(0).size();
+        }
+        return repack(loose, oldPacks, null);
+    }
+
+    /* Delete every object that is neither in LIVE nor modified at or
+     * after CUTOFF, in epoch millis. A packed object counts as modified
+     * when its pack was, and an object with a recent copy anywhere is
+     * kept, so objects a running command has just written survive even
+     * before a ref points at them. Everything else is folded into one
+     * pack as by repack, keeping only what is live: recent loose objects
+     * that are not live stay loose, and recent packs holding such
+     * objects are left alone, so what is kept only for its age keeps its
+     * age and is deleted by the first gc after it is old enough.
+     * Returns the ids of the objects deleted.
+     */
+    public Set<String> prune(Set<String> live, long cutoff) {
+        /* the ids of the objects left where they are */
+        Set<String> staying = new HashSet<>();
+        Set<String> dead = new HashSet<>();
+        List<String> foldedLoose = new ArrayList<>();
+        for (String id : looseIds()) {
+            if (live.contains(id)) {
+                foldedLoose.add(id);
+            } else if (looseFile(id).lastModified() >= cutoff) {
+                staying.add(id);
+            } else {
+                dead.add(id);
+                foldedLoose.add(id);
+            }
+        }
+        List<PackFile> foldedPacks = new ArrayList<>();
+        for (PackFile pack : getPacks()) {
+            boolean old = pack.getPackFile().lastModified() < cutoff;
+            List<String> garbage = new ArrayList<>();
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                if (!live.contains(id)) {
+                    garbage.add(id);
+                }
+            }
+            if (old) {
+                dead.addAll(garbage);
+                foldedPacks.add(pack);
+            } else if (garbage.isEmpty()) {
+                foldedPacks.add(pack);
+            } else {
+                for (int i = 0; i < pack.size(); i += 1) {
+                    staying.add(pack.idAt(i));
+                }
+            }
+        }
+        dead.removeAll(staying);
+        if (!dead.isEmpty() || foldedLoose.size() + foldedPacks.size() > 1) {
+            repack(foldedLoose, foldedPacks, id -> !dead.contains(id) && !staying.contains(id));
+        }
+        return dead;
+    }
+
+    /* Fold the LOOSE objects and the OLDPACKS into one new pack, keeping
+     * only the objects KEEP accepts, or all of them if KEEP is null. The
+     * others are deleted along with the copies that were folded in.
+     */
+    private int repack(List<String> loose, List<PackFile> oldPacks, Predicate<String> keep) {
+        Set<String> ids = new LinkedHashSet<>(loose);
+        for (PackFile pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                ids.add(pack.idAt(i));
+            }
+        }
+        if (keep != null) {
+            ids.removeIf(keep.negate());
+        }
+
+        /* The type and size of every object, and the name it has in a tree.
+         * Only trees are read whole here.
+         */
+        List<PackEntry> entries = new ArrayList<>();
+        Map<String, String> names = new HashMap<>();
+        for (String id : ids) {
+            PackEntry object = readEntry(id);
+            entries.add(object);
+            if (object.type == TREE) {
+                byte[] raw = readRaw(id);
+                Tree tree = Tree.decode(Arrays.copyOfRange(raw, 1, raw.length));
+                for (Map.Entry<String, Tree.Entry> entry : tree.getEntries().entrySet()) {
+                    names.putIfAbsent(entry.getValue().id, entry.getKey());
+                }
+            }
+        }
+        for (PackEntry entry : entries) {
+            entry.name = names.getOrDefault(entry.id, "");
+        }
+        entries.sort(Comparator.<PackEntry>comparingInt(e -> e.type)
+                .thenComparing(e -> e.name)
+                .thenComparing(e -> -e.size));
+
+        PackWriter writer = new PackWriter(packDir);
+        Deque<PackEntry> window = new ArrayDeque<>();
+        for (PackEntry entry : entries) {
+            if (entry.streamed()) {
+                writer.add(entry.id, out -> copyStored(entry.id, out));
+                continue;
+            }
+            byte[] raw = readRaw(entry.id);
+            byte[] best = null;
+            PackEntry base = null;
+            if (entry.deltable()) {
+                for (PackEntry candidate : window) {
+                    if (candidate.type != entry.type || candidate.depth >= DELTA_DEPTH) {
+                        continue;
+                    }
+                    int maxSize = best == null ? raw.length / 2 - PackFile.ID_SIZE : best.length - 1;
+                    byte[] delta = Delta.create(candidate.raw, raw, maxSize);
+                    if (delta != null) {
+                        best = delta;
+                        base = candidate;
+                    }
+                }
+            }
+            if (base != null) {
+                entry.depth = base.depth + 1;
+                writer.add(entry.id, concat(new byte[] {DELTA}, Utils.hexToBytes(base.id),
+                        deflate(best)));
+            } else {
+                writer.add(entry.id, LEVEL == 0 ? raw : deflate(raw));
+            }
+            if (entry.deltable()) {
+                entry.raw = raw;
+                window.addLast(entry);
+                if (window.size() > DELTA_WINDOW) {
+                    window.removeFirst().raw = null;
+                }
+            }
+        }
+        PackFile newPack = writer.finish();
+        int count = writer.size();
+
+        /* Only delete the old copies once the new pack is in place */
+        for (PackFile pack : oldPacks) {
+            pack.close();
+            if (newPack == null || !pack.getIdxFile().equals(newPack.getIdxFile())) {
+                pack.getIdxFile().delete();
+                pack.getPackFile().delete();
+            }
+        }
+        for (String id : loose) {
+            File file = looseFile(id);
+            file.delete();
+            File directory = file.getParentFile();
+            String[] rest = directory.list();
+            if (rest != null && rest.length == 0) {
+                directory.delete();
+            }
+        }
+        packs = null;
+        return count;
+    }
+}
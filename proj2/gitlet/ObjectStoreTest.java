@@ -0,0 +1,274 @@
+package gitlet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/** Tests of the batches of ObjectStore, of the copying of blobs between
+ *  stores and of the sweep of gc, ObjectStore.prune.
+ *  @author Jiehao Guan
+ */
+public class ObjectStoreTest {
+    /* A day in millis */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Write a blob holding TEXT to STORE and return its id */
+    private static String blob(ObjectStore store, String text) {
+        byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+        String id = Utils.sha1((Object) contents);
+        store.write(id, ObjectStore.BLOB, contents);
+        return id;
+    }
+
+    /* Make every pack of STORE look AGE millis old */
+    private static void age(ObjectStore store, long age) {
+        long time = System.currentTimeMillis() - age;
+        for (PackFile pack : store.getPacks()) {
+            assertTrue(pack.getPackFile().setLastModified(time));
+            assertTrue(pack.getIdxFile().setLastModified(time));
+        }
+    }
+
+    private ObjectStore newStore() throws IOException {
+        return new ObjectStore(folder.newFolder("Objects"));
+    }
+
+    @Test
+    /** Garbage of a pack younger than the cutoff survives, and the pack is
+     *  not rewritten, so it keeps its age */
+    public void recentPackIsLeftAlone() throws IOException {
+        ObjectStore store = newStore();
+        String live = blob(store, "live");
+        String garbage = blob(store, "garbage");
+        store.repack();
+        File pack = store.getPacks().get(0).getPackFile();
+        age(store, DAY);
+
+        String old = blob(store, "old loose garbage");
+        assertTrue(store.looseFile(old).setLastModified(System.currentTimeMillis() - 3 * DAY));
+        long cutoff = System.currentTimeMillis() - 2 * DAY;
+        Set<String> deleted = store.prune(Collections.singleton(live), cutoff);
+
+        assertEquals(Collections.singleton(old), deleted);
+        assertTrue(store.contains(live));
+        assertTrue(store.contains(garbage));
+        assertTrue(pack.isFile());
+        assertEquals(System.currentTimeMillis() - DAY, pack.lastModified(), 60 * 1000);
+    }
+
+    @Test
+    /** Once its pack is older than the cutoff, garbage is deleted, even
+     *  after an earlier prune kept it for being recent */
+    public void agedPackIsPruned() throws IOException {
+        ObjectStore store = newStore();
+        String live = blob(store, "live");
+        String garbage = blob(store, "garbage");
+        store.repack();
+
+        long now = System.currentTimeMillis();
+        assertTrue(store.prune(Collections.singleton(live), now - 2 * DAY).isEmpty());
+
+        age(store, 3 * DAY);
+        Set<String> deleted = store.prune(Collections.singleton(live), now - 2 * DAY);
+        assertEquals(Collections.singleton(garbage), deleted);
+        assertFalse(store.contains(garbage));
+        assertTrue(store.contains(live));
+        assertEquals(1, store.getPacks().size());
+    }
+
+    @Test
+    /** Recent loose garbage stays loose when other objects are pruned,
+     *  rather than getting a new age in the pack prune writes */
+    public void recentLooseGarbageStaysLoose() throws IOException {
+        ObjectStore store = newStore();
+        String live = blob(store, "live");
+        String old = blob(store, "old garbage");
+        store.repack();
+        age(store, 3 * DAY);
+        String recent = blob(store, "recent garbage");
+
+        long cutoff = System.currentTimeMillis() - 2 * DAY;
+        assertEquals(Collections.singleton(old), store.prune(Collections.singleton(live), cutoff));
+        assertTrue(store.looseFile(recent).isFile());
+        assertTrue(store.contains(live));
+        assertEquals(1, store.getPacks().size());
+        assertFalse(store.getPacks().get(0).contains(recent));
+    }
+
+    @Test
+    /** A live object is kept whatever its age */
+    public void liveObjectsAreKept() throws IOException {
+        ObjectStore store = newStore();
+        Set<String> live = new HashSet<>();
+        for (int i = 0; i < 10; i += 1) {
+            live.add(blob(store, "live " + i));
+        }
+        String garbage = blob(store, "garbage");
+        store.repack();
+        age(store, 3 * DAY);
+
+        assertEquals(Collections.singleton(garbage), store.prune(live, Long.MAX_VALUE));
+        for (String id : live) {
+            assertTrue(store.contains(id));
+        }
+    }
+
+    @Test
+    /** A batch smaller than PACK_THRESHOLD is written as loose objects */
+    public void smallBatchIsLoose() throws IOException {
+        ObjectStore store = newStore();
+        store.beginBatch();
+        String id = blob(store, "one object");
+        assertTrue(store.contains(id));
+        store.commitBatch();
+        assertTrue(store.looseFile(id).isFile());
+        assertTrue(store.getPacks().isEmpty());
+        assertArrayEquals("one object".getBytes(StandardCharsets.UTF_8),
+                store.read(id, ObjectStore.BLOB));
+    }
+
+    @Test
+    /** A batch of PACK_THRESHOLD objects is written as one pack */
+    public void largeBatchIsPacked() throws IOException {
+        ObjectStore store = newStore();
+        store.beginBatch();
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < ObjectStore.PACK_THRESHOLD; i += 1) {
+            ids.add(blob(store, "object " + i));
+        }
+        store.commitBatch();
+        assertTrue(store.looseIds().isEmpty());
+        assertEquals(1, store.getPacks().size());
+        for (String id : ids) {
+            assertTrue(store.getPacks().get(0).contains(id));
+        }
+    }
+
+    @Test
+    /** An aborted batch leaves nothing behind */
+    public void abortedBatchIsDropped() throws IOException {
+        ObjectStore store = newStore();
+        store.beginBatch();
+        String id = blob(store, "dropped");
+        store.abortBatch();
+        assertFalse(store.contains(id));
+        assertTrue(store.looseIds().isEmpty());
+    }
+
+    @Test
+    /** gc folds every pack holding only live objects into one */
+    public void livePacksAreFolded() throws IOException {
+        ObjectStore store = newStore();
+        Set<String> live = new HashSet<>();
+        for (int pack = 0; pack < 3; pack += 1) {
+            store.beginBatch();
+            for (int i = 0; i < ObjectStore.PACK_THRESHOLD; i += 1) {
+                live.add(blob(store, "object " + pack + " " + i));
+            }
+            store.commitBatch();
+        }
+        assertEquals(3, store.getPacks().size());
+        assertTrue(store.prune(live, System.currentTimeMillis() - 2 * DAY).isEmpty());
+        assertEquals(1, store.getPacks().size());
+        assertEquals(live.size(), store.getPacks().get(0).size());
+    }
+
+    @Test
+    /** copyBlob copies loose and packed blobs, into a batch or loose,
+     *  and leaves no temporary file behind */
+    public void blobsAreCopied() throws IOException {
+        ObjectStore source = new ObjectStore(folder.newFolder("source"));
+        byte[][] contents = new byte[2][3 * 1024 * 1024];
+        String[] ids = new String[2];
+        Random random = new Random(11);
+        for (int i = 0; i < 2; i += 1) {
+            random.nextBytes(contents[i]);
+            ids[i] = Utils.sha1((Object) contents[i]);
+            source.write(ids[i], ObjectStore.BLOB, contents[i]);
+            if (i == 0) {
+                source.repack();
+            }
+        }
+        assertTrue(source.getPacks().get(0).contains(ids[0]));
+        assertTrue(source.looseFile(ids[1]).isFile());
+
+        File looseDir = folder.newFolder("loose");
+        ObjectStore loose = new ObjectStore(looseDir);
+        File batchDir = folder.newFolder("batch");
+        ObjectStore batch = new ObjectStore(batchDir);
+        batch.beginBatch();
+        for (String id : ids) {
+            loose.copyBlob(source, id);
+            batch.copyBlob(source, id);
+        }
+        batch.commitBatch();
+        for (int i = 0; i < 2; i += 1) {
+            assertArrayEquals(contents[i], loose.read(ids[i], ObjectStore.BLOB));
+            assertArrayEquals(contents[i], batch.read(ids[i], ObjectStore.BLOB));
+            assertTrue(loose.looseFile(ids[i]).isFile());
+        }
+        for (File dir : new File[] {looseDir, batchDir}) {
+            for (String name : dir.list()) {
+                assertFalse(name, name.startsWith("tmp-"));
+            }
+        }
+    }
+
+    @Test
+    /** repack keeps every object, copies large blobs as they are stored
+     *  instead of as deltas, and reads the deltas of an earlier pack back */
+    public void repackCopiesLargeBlobs() throws IOException {
+        ObjectStore store = newStore();
+        Random random = new Random(5);
+        byte[] large = new byte[2 * 1024 * 1024];
+        random.nextBytes(large);
+        byte[] larger = Arrays.copyOf(large, large.length + 100);
+        String[] largeIds = {Utils.sha1((Object) large), Utils.sha1((Object) larger)};
+        store.write(largeIds[0], ObjectStore.BLOB, large);
+        store.write(largeIds[1], ObjectStore.BLOB, larger);
+
+        /* versions of a small file, which become deltas of each other */
+        StringBuilder text = new StringBuilder();
+        Set<String> small = new HashSet<>();
+        for (int i = 0; i < 200; i += 1) {
+            text.append("line ").append(i).append('\n');
+            if (i % 20 == 19) {
+                small.add(blob(store, text.toString()));
+            }
+        }
+        assertEquals(12, store.repack());
+        PackFile pack = store.getPacks().get(0);
+        int deltas = 0;
+        for (String id : small) {
+            deltas += pack.slice(id).get(0) == ObjectStore.DELTA ? 1 : 0;
+        }
+        assertTrue(deltas > 0);
+
+        /* a second repack reads the large blobs and the deltas from the pack */
+        blob(store, "one more");
+        assertEquals(13, store.repack());
+        pack = store.getPacks().get(0);
+        for (String id : largeIds) {
+            assertNotEquals(ObjectStore.DELTA, pack.slice(id).get(0));
+        }
+        assertArrayEquals(large, store.read(largeIds[0], ObjectStore.BLOB));
+        assertArrayEquals(larger, store.read(largeIds[1], ObjectStore.BLOB));
+        for (String id : small) {
+            assertEquals(id, Utils.sha1((Object) store.read(id, ObjectStore.BLOB)));
+        }
+    }
+}
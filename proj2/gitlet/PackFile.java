@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/** Represents a read-only gitlet pack: an append-only .pack file holding
+ *  many objects back to back, plus a sorted .idx file that maps each
+ *  object's SHA-1 to its offset in the pack.
+ *
+ *  .pack layout:  "PACK" | version | count | (length | bytes)* | SHA-1
+ *  .idx layout:   "PIDX" | version | count | fanout[256]
+ *                 | sorted 20-byte ids[count] | 8-byte offsets[count]
+ *
+ *  The bytes of an entry are those of a stored object, or a delta
+ *  against another object of the same pack (see ObjectStore).
+ *
+ *  The fanout table holds, for each possible first byte B, the number of
+ *  ids whose first byte is <= B, so a lookup only binary searches the
+ *  slice of ids that share the first byte.
+ *
+ *  Both files are memory-mapped, so looking up and reading small objects
+ *  never copies more than the entry itself, and large entries can be
+ *  streamed out of the pack with transferTo without touching the heap.
+ *
+ *  @author Jiehao Guan
+ */
+public class PackFile {
+    static final int PACK_MAGIC = 0x5041434b; /* "PACK" */
+    static final int IDX_MAGIC = 0x50494458;  /* "PIDX" */
+    static final int VERSION = 1;
+    static final int PACK_HEADER_SIZE = 12;
+    static final int IDX_HEADER_SIZE = 12 + 256 * 4;
+    static final int ID_SIZE = 20;
+
+    /* The .pack and .idx files */
+    private final File packFile;
+    private final File idxFile;
+
+    /* The mapped index */
+    private MappedByteBuffer idx;
+    private int count;
+
+    /* The pack file, opened once and kept open for the process */
+    private FileChannel pack;
+
+    /* The mapped pack, or null if it is too large for a single mapping */
+    private MappedByteBuffer packMap;
+
+    public PackFile(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    /* Get the .pack file */
+    public File getPackFile() {
+        return packFile;
+    }
+
+    /* Get the .idx file */
+    public File getIdxFile() {
+        return idxFile;
+    }
+
+    /* Map the index the first time it is needed */
+    private synchronized void loadIndex() {
+        if (idx != null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.capacity() < IDX_HEADER_SIZE || map.getInt(0) != IDX_MAGIC
+                    || map.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt pack index: %s", idxFile.getName());
+            }
+            count = map.getInt(8);
+            idx = map;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Open and, if it fits, map the pack the first time it is needed */
+    private synchronized FileChannel openPack() throws IOException {
+        if (pack == null) {
+            pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            if (pack.size() <= Integer.MAX_VALUE) {
+                packMap = pack.map(FileChannel.MapMode.READ_ONLY, 0, pack.size());
+            }
+        }
+        return pack;
+    }
+
+    /* Get the number of objects in this pack */
+    public int size() {
+        loadIndex();
+        return count;
+    }
+
+    /* Get the id of the i-th object in sorted order */
+    public String idAt(int i) {
+        loadIndex();
+        byte[] id = new byte[ID_SIZE];
+        idx.get(IDX_HEADER_SIZE + i * ID_SIZE, id);
+        return Utils.bytesToHex(id, 0, ID_SIZE);
+    }
+
+    /* Return the position of ID in the index, or -1 if it is not packed
+     * or is not an object id at all
+     */
+    public int find(String id) {
+        if (!Utils.isObjectId(id)) {
+            return -1;
+        }
+        loadIndex();
+        byte[] key = Utils.hexToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /* Check if the pack contains the object */
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /* Read the object with ID, or return null if it is not in this pack */
+    public byte[] read(String id) {
+        ByteBuffer entry = slice(id);
+        if (entry == null) {
+            return null;
+        }
+        byte[] result = new byte[entry.remaining()];
+        entry.get(result);
+        return result;
+    }
+
+    /* Read the object at the i-th position of the index */
+    public byte[] readIndexed(int i) {
+        ByteBuffer entry = sliceIndexed(i);
+        byte[] result = new byte[entry.remaining()];
+        entry.get(result);
+        return result;
+    }
+
+    /* Get a read-only view of the stored bytes of the object ID,
+     * or null if it is not in this pack
+     */
+    public ByteBuffer slice(String id) {
+        int pos = find(id);
+        if (pos < 0) {
+            return null;
+        }
+        return sliceAt(offsetAt(pos));
+    }
+
+    /* Get a read-only view of the stored bytes of the i-th object */
+    public ByteBuffer sliceIndexed(int i) {
+        loadIndex();
+        return sliceAt(offsetAt(i));
+    }
+
+    /* Get a read-only view of the entry that starts at OFFSET */
+    private ByteBuffer sliceAt(long offset) {
+        try {
+            FileChannel channel = openPack();
+            if (packMap != null) {
+                int length = packMap.getInt((int) offset);
+                return packMap.slice((int) offset + 4, length).asReadOnlyBuffer();
+            }
+            ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+            channel.read(lengthBuf, offset);
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset + 4, lengthBuf.getInt(0));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Stream the stored bytes of the object ID, minus the first SKIP,
+     * into OUT. Returns false if the object is not in this pack.
+     */
+    public boolean transferTo(String id, int skip, WritableByteChannel out) {
+        int pos = find(id);
+        if (pos < 0) {
+            return false;
+        }
+        try {
+            FileChannel channel = openPack();
+            long offset = offsetAt(pos);
+            ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+            channel.read(lengthBuf, offset);
+            long start = offset + 4 + skip;
+            long remaining = lengthBuf.getInt(0) - skip;
+            while (remaining > 0) {
+                long sent = channel.transferTo(start, remaining, out);
+                start += sent;
+                remaining -= sent;
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Release the open pack file */
+    public synchronized void close() {
+        if (pack != null) {
+            try {
+                pack.close();
+            } catch (IOException excp) {
+                /* Nothing to do, the file was only read */
+            }
+            pack = null;
+            packMap = null;
+        }
+    }
+
+    /* Get the cumulative fanout count for first byte B */
+    private int fanout(int b) {
+        return idx.getInt(12 + b * 4);
+    }
+
+    /* Get the pack offset of the i-th id */
+    private long offsetAt(int i) {
+        return idx.getLong(IDX_HEADER_SIZE + count * ID_SIZE + i * 8);
+    }
+
+    /* Compare the i-th id with KEY as unsigned bytes */
+    private int compareId(int i, byte[] key) {
+        int base = IDX_HEADER_SIZE + i * ID_SIZE;
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int a = idx.get(base + k) & 0xff;
+            int b = key[k] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Writes a new pack and its index. Objects are appended to a temporary
+ *  pack file as they are added, and the sorted index is only written by
+ *  finish(), after which both files are synced and renamed into the pack
+ *  directory. See PackFile for the file layout.
+ *
+ *  An ObjectStore batch writes every new object of a command into one
+ *  PackWriter, so the whole command costs a single sync of its pack
+ *  however many objects it writes. A batch too small to be worth a pack
+ *  copies its objects out as loose objects and aborts the pack. Objects
+ *  added so far can be read back before the pack is finished. All methods
+ *  are synchronized, so objects can be added from several threads.
+ *
+ *  @author Jiehao Guan
+ */
+public class PackWriter {
+    /* Writes the stored bytes of one object to a stream */
+    interface EntryWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /* The directory the finished pack goes to */
+    private final File packDir;
+
+    /* The temporary pack file, the channel it is written through and
+     * the buffered stream that appends to the channel
+     */
+    private final File tmpPack;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+
+    /* The offset of every object written so far, sorted by id */
+    private final TreeMap<String, Long> offsets = new TreeMap<>();
+
+    /* The ids of the objects in the order they were added */
+    private final List<String> added = new ArrayList<>();
+    private long position;
+
+    public PackWriter(File packDir) {
+        this.packDir = packDir;
+        if (!packDir.exists()) {
+            packDir.mkdirs();
+        }
+        try {
+            tmpPack = File.createTempFile("tmp-", ".pack", packDir);
+            channel = FileChannel.open(tmpPack.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 64 * 1024));
+            out.writeInt(PackFile.PACK_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            /* The count is not known yet, PackFile only trusts the index */
+            out.writeInt(0);
+            position = PackFile.PACK_HEADER_SIZE;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Check if the object has already been added to this pack */
+    public synchronized boolean contains(String id) {
+        return offsets.containsKey(id);
+    }
+
+    /* Get the number of objects added so far */
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    /* Append the object ID with CONTENTS to the pack */
+    public synchronized void add(String id, byte[] contents) {
+        if (offsets.containsKey(id)) {
+            return;
+        }
+        try {
+            offsets.put(id, position);
+            added.add(id);
+            out.writeInt(contents.length);
+            out.write(contents);
+            position += 4 + contents.length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Append the object ID to the pack, its contents written by WRITER.
+     * The length is filled in afterwards, so the contents can be streamed
+     * without knowing their size in advance.
+     */
+    public synchronized void add(String id, EntryWriter writer) {
+        if (offsets.containsKey(id)) {
+            return;
+        }
+        try {
+            long start = position;
+            out.writeInt(0);
+            writer.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+            out.flush();
+            position = channel.position();
+            long length = position - start - 4;
+            if (length > Integer.MAX_VALUE) {
+                throw Utils.error("Object %s is too large for a pack.", id);
+            }
+            channel.write(ByteBuffer.allocate(4).putInt(0, (int) length), start);
+            offsets.put(id, start);
+            added.add(id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Get the ids of the objects added so far, in the order they were
+     * added, so every object comes after those it refers to
+     */
+    public synchronized List<String> ids() {
+        return new ArrayList<>(added);
+    }
+
+    /* Copy the stored bytes of the object ID added to this pack to TARGET
+     * without reading them into memory
+     */
+    public synchronized void transferTo(String id, WritableByteChannel target) throws IOException {
+        long offset = offsets.get(id);
+        out.flush();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (length.hasRemaining()) {
+            channel.read(length, offset + length.position());
+        }
+        long position = offset + 4;
+        long remaining = length.getInt(0);
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    /* Read back the stored bytes of the object ID added to this pack, or
+     * return null if it has not been added
+     */
+    public synchronized byte[] read(String id) {
+        Long offset = offsets.get(id);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            out.flush();
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, offset);
+            ByteBuffer contents = ByteBuffer.allocate(length.getInt(0));
+            while (contents.hasRemaining()) {
+                channel.read(contents, offset + 4 + contents.position());
+            }
+            return contents.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Write the index, sync both files and move them into place.
+     * Returns the finished pack, or null if nothing was added.
+     */
+    public synchronized PackFile finish() {
+        try {
+            out.flush();
+            if (offsets.isEmpty()) {
+                channel.close();
+                tmpPack.delete();
+                return null;
+            }
+            channel.write(ByteBuffer.wrap(checksum()), position);
+            channel.force(true);
+            channel.close();
+
+            String name = "pack-" + Utils.sha1(String.join("", offsets.keySet()));
+            File idxFile = Utils.join(packDir, name + ".idx");
+            File packFile = Utils.join(packDir, name + ".pack");
+            File tmpIdx = File.createTempFile("tmp-", ".idx", packDir);
+            writeIndex(tmpIdx);
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Utils.syncDirectory(packDir);
+            return new PackFile(idxFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Throw away the partially written pack */
+    public synchronized void abort() {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /* The file is deleted anyway */
+        }
+        tmpPack.delete();
+    }
+
+    /* Get the SHA-1 of everything written to the pack so far */
+    private byte[] checksum() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long read = 0;
+        while (read < position) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), position - read));
+            int n = channel.read(buffer, read);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            read += n;
+        }
+        return digest.digest();
+    }
+
+    /* Write the sorted index to FILE */
+    private void writeIndex(File file) throws IOException {
+        int[] fanout = new int[256];
+        for (String id : offsets.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        FileOutputStream stream = new FileOutputStream(file);
+        try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(stream))) {
+            idx.writeInt(PackFile.IDX_MAGIC);
+            idx.writeInt(PackFile.VERSION);
+            idx.writeInt(offsets.size());
+            int total = 0;
+            for (int b = 0; b < 256; b += 1) {
+                total += fanout[b];
+                idx.writeInt(total);
+            }
+            for (String id : offsets.keySet()) {
+                idx.write(Utils.hexToBytes(id));
+            }
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                idx.writeLong(entry.getValue());
+            }
+            idx.flush();
+            stream.getFD().sync();
+        }
+    }
+}
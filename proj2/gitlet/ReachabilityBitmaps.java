@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Keeps, for every branch, the commits reachable from its head as a
+ *  Bitmap of commit-graph positions, stored in a file next to the
+ *  commit-graph. "Every commit reachable from any branch" is then the
+ *  union of a few bitmaps instead of a walk of the whole history.
+ *
+ *  A bitmap is only rebuilt when its branch has moved, and the walk for
+ *  the new head stops at any commit that is the head of a known bitmap
+ *  and takes that bitmap whole, so after a commit only the new commit
+ *  is visited.
+ *
+ *  Positions are only meaningful for the graph they came from, so the
+ *  file records how many positions of the graph it covers and the id at
+ *  the last one. If the graph no longer matches, the bitmaps are rebuilt.
+ *
+ *  File layout:  "CGBM" | version | covered positions | 20-byte id of the
+ *                last covered position | branch count
+ *                | (2-byte length + UTF-8 name | head position | bitmap)*
+ *
+ *  @author Jiehao Guan
+ */
+public class ReachabilityBitmaps {
+    static final int MAGIC = 0x4347424d; /* "CGBM" */
+    static final int VERSION = 1;
+
+    /* The bitmaps file */
+    private final File file;
+
+    /* The graph the positions refer to */
+    private final CommitGraph graph;
+
+    /* The head position and the bitmap of each branch */
+    private final Map<String, Integer> heads = new TreeMap<>();
+    private final Map<String, Bitmap> bitmaps = new TreeMap<>();
+
+    /* Whether anything changed since the file was read */
+    private boolean changed;
+
+    private ReachabilityBitmaps(File file, CommitGraph graph) {
+        this.file = file;
+        this.graph = graph;
+    }
+
+    /* Read the bitmaps FILE of GRAPH. Starts empty if the file does not
+     * exist, is corrupt, or was written for a different graph.
+     */
+    public static ReachabilityBitmaps load(File file, CommitGraph graph) {
+        ReachabilityBitmaps result = new ReachabilityBitmaps(file, graph);
+        if (!file.isFile()) {
+            return result;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                result.changed = true;
+                return result;
+            }
+            int covered = in.getInt();
+            byte[] last = new byte[PackFile.ID_SIZE];
+            in.get(last);
+            if (covered > graph.size() || (covered > 0 && !graph.getId(covered - 1)
+                    .equals(Utils.bytesToHex(last, 0, last.length)))) {
+                result.changed = true;
+                return result;
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; i += 1) {
+                byte[] name = new byte[in.getShort() & 0xffff];
+                in.get(name);
+                String branch = new String(name, StandardCharsets.UTF_8);
+                result.heads.put(branch, in.getInt());
+                result.bitmaps.put(branch, Bitmap.decode(in));
+            }
+        } catch (BufferUnderflowException excp) {
+            result.heads.clear();
+            result.bitmaps.clear();
+            result.changed = true;
+        }
+        return result;
+    }
+
+    /* Get the positions of the commits reachable from HEAD, the head
+     * position of BRANCH, building the bitmap if the branch has moved
+     */
+    public Bitmap reachable(String branch, int head) {
+        Integer known = heads.get(branch);
+        if (known != null && known == head) {
+            return bitmaps.get(branch);
+        }
+        Bitmap result = walk(head);
+        heads.put(branch, head);
+        bitmaps.put(branch, result);
+        changed = true;
+        return result;
+    }
+
+    /* Build the bitmap of HEAD, taking the bitmap of any known head
+     * that is reached instead of walking below it
+     */
+    private Bitmap walk(int head) {
+        Map<Integer, Bitmap> byHead = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : heads.entrySet()) {
+            byHead.put(entry.getValue(), bitmaps.get(entry.getKey()));
+        }
+
+        Bitmap result = new Bitmap();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (result.contains(pos)) {
+                continue;
+            }
+            Bitmap known = byHead.get(pos);
+            if (known != null) {
+                result.or(known);
+                continue;
+            }
+            result.add(pos);
+            for (int i = 0; i < 2; i += 1) {
+                int parent = graph.getParent(pos, i);
+                if (parent != CommitGraph.NONE && !result.contains(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Forget the bitmaps of every branch not in BRANCHES */
+    public void retain(Collection<String> branches) {
+        changed |= heads.keySet().retainAll(branches);
+        bitmaps.keySet().retainAll(branches);
+    }
+
+    /* Write the bitmaps to the file if they changed. The graph must
+     * already be saved, so every position in them is in its file.
+     */
+    public void save() {
+        if (!changed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int covered = graph.size();
+            out.writeInt(covered);
+            out.write(covered == 0 ? new byte[PackFile.ID_SIZE]
+                    : Utils.hexToBytes(graph.getId(covered - 1)));
+            out.writeInt(heads.size());
+            for (Map.Entry<String, Integer> entry : heads.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(entry.getValue());
+                bitmaps.get(entry.getKey()).encode(out);
+            }
+            out.close();
+            Utils.writeAtomically(file, false, bytes.toByteArray());
+            changed = false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
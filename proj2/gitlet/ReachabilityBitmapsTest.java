@@ -0,0 +1,191 @@
+package gitlet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/** Tests of the reachability bitmaps of the branches, ReachabilityBitmaps,
+ *  on commit-graph files written directly.
+ *  @author Jiehao Guan
+ */
+public class ReachabilityBitmapsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Write a commit-graph FILE whose commit at position I has the parents
+     * PARENTS[I], and ids made from SALT. Returns the ids.
+     */
+    static String[] writeGraph(File file, int[][] parents, String salt) throws IOException {
+        String[] ids = new String[parents.length];
+        int[] generation = new int[parents.length];
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(CommitGraph.MAGIC);
+            out.writeInt(CommitGraph.VERSION);
+            out.writeInt(parents.length);
+            for (int pos = 0; pos < parents.length; pos += 1) {
+                ids[pos] = Utils.sha1(salt + " " + pos);
+                generation[pos] = 1;
+                for (int parent : parents[pos]) {
+                    generation[pos] = Math.max(generation[pos], generation[parent] + 1);
+                }
+                out.write(Utils.hexToBytes(ids[pos]));
+                out.writeInt(parents[pos].length > 0 ? parents[pos][0] : CommitGraph.NONE);
+                out.writeInt(parents[pos].length > 1 ? parents[pos][1] : CommitGraph.NONE);
+                out.writeInt(generation[pos]);
+                out.writeLong(1000L * pos);
+            }
+        }
+        return ids;
+    }
+
+    /* Get the parents of a chain of N commits, each the parent of the next */
+    static int[][] chain(int n) {
+        int[][] parents = new int[n][];
+        for (int pos = 0; pos < n; pos += 1) {
+            parents[pos] = pos == 0 ? new int[0] : new int[] {pos - 1};
+        }
+        return parents;
+    }
+
+    /* Get the positions reachable from HEAD by walking PARENTS */
+    private static int[] walk(int[][] parents, int head) {
+        TreeSet<Integer> seen = new TreeSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (seen.add(pos)) {
+                for (int parent : parents[pos]) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return seen.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /* Get a history with two long branches and a merge of them:
+     * 0..4999 a chain, 5000..7999 a branch off 2000, 8000 the merge of
+     * 4999 and 7999, and 8001 a commit after it
+     */
+    private static int[][] history() {
+        int[][] parents = Arrays.copyOf(chain(5000), 8002);
+        parents[5000] = new int[] {2000};
+        for (int pos = 5001; pos < 8000; pos += 1) {
+            parents[pos] = new int[] {pos - 1};
+        }
+        parents[8000] = new int[] {4999, 7999};
+        parents[8001] = new int[] {8000};
+        return parents;
+    }
+
+    @Test
+    /** The bitmap of a head holds exactly what a walk reaches */
+    public void bitmapsMatchWalks() throws IOException {
+        File graphFile = folder.newFile("commit-graph");
+        int[][] parents = history();
+        writeGraph(graphFile, parents, "a");
+        CommitGraph graph = CommitGraph.load(graphFile);
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(
+                new File(folder.getRoot(), "bitmaps"), graph);
+
+        for (int head : new int[] {0, 4999, 7999, 2000, 8000, 8001}) {
+            assertArrayEquals("head " + head, walk(parents, head),
+                    bitmaps.reachable("branch", head).toArray());
+        }
+        /* a branch reaching the heads of others takes their bitmaps */
+        bitmaps.reachable("main", 4999);
+        bitmaps.reachable("topic", 7999);
+        assertArrayEquals(walk(parents, 8001), bitmaps.reachable("merged", 8001).toArray());
+    }
+
+    @Test
+    /** Saved bitmaps are read back for the graph they were built on */
+    public void savedBitmapsAreReused() throws IOException {
+        File graphFile = folder.newFile("commit-graph");
+        File file = new File(folder.getRoot(), "bitmaps");
+        int[][] parents = history();
+        writeGraph(graphFile, parents, "a");
+        CommitGraph graph = CommitGraph.load(graphFile);
+
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(file, graph);
+        bitmaps.reachable("main", 4999);
+        bitmaps.reachable("topic", 7999);
+        bitmaps.save();
+        long length = file.length();
+        assertTrue(file.setLastModified(0));
+
+        ReachabilityBitmaps loaded = ReachabilityBitmaps.load(file, graph);
+        assertArrayEquals(walk(parents, 4999), loaded.reachable("main", 4999).toArray());
+        assertArrayEquals(walk(parents, 7999), loaded.reachable("topic", 7999).toArray());
+        /* nothing moved, so nothing is written */
+        loaded.save();
+        assertEquals(0, file.lastModified());
+
+        loaded.retain(Collections.singleton("main"));
+        loaded.save();
+        assertTrue(file.length() < length);
+        ReachabilityBitmaps retained = ReachabilityBitmaps.load(file, graph);
+        assertArrayEquals(walk(parents, 4999), retained.reachable("main", 4999).toArray());
+    }
+
+    @Test
+    /** A moved branch gets a new bitmap */
+    public void movedBranchIsRebuilt() throws IOException {
+        File graphFile = folder.newFile("commit-graph");
+        File file = new File(folder.getRoot(), "bitmaps");
+        int[][] parents = history();
+        writeGraph(graphFile, parents, "a");
+        CommitGraph graph = CommitGraph.load(graphFile);
+
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(file, graph);
+        bitmaps.reachable("main", 4999);
+        bitmaps.save();
+        ReachabilityBitmaps loaded = ReachabilityBitmaps.load(file, graph);
+        assertArrayEquals(walk(parents, 8001), loaded.reachable("main", 8001).toArray());
+        assertArrayEquals(walk(parents, 2000), loaded.reachable("main", 2000).toArray());
+    }
+
+    @Test
+    /** Bitmaps saved for another graph, such as the one gc dropped
+     *  commits from, are not used */
+    public void otherGraphIsIgnored() throws IOException {
+        File graphFile = folder.newFile("commit-graph");
+        File file = new File(folder.getRoot(), "bitmaps");
+        int[][] parents = history();
+        writeGraph(graphFile, parents, "a");
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(file,
+                CommitGraph.load(graphFile));
+        bitmaps.reachable("main", 8001);
+        bitmaps.save();
+
+        /* as many commits, other ids, and the head at the same position */
+        int[][] rooted = chain(8002);
+        rooted[8001] = new int[0];
+        writeGraph(graphFile, rooted, "b");
+        ReachabilityBitmaps other = ReachabilityBitmaps.load(file, CommitGraph.load(graphFile));
+        assertArrayEquals(new int[] {8001}, other.reachable("main", 8001).toArray());
+
+        /* a shorter graph */
+        writeGraph(graphFile, chain(100), "a");
+        ReachabilityBitmaps shorter = ReachabilityBitmaps.load(file,
+                CommitGraph.load(graphFile));
+        assertArrayEquals(walk(chain(100), 99), shorter.reachable("main", 99).toArray());
+
+        /* a corrupt file */
+        Utils.writeContents(file, "CGBM");
+        ReachabilityBitmaps corrupt = ReachabilityBitmaps.load(file,
+                CommitGraph.load(graphFile));
+        assertArrayEquals(walk(chain(100), 50), corrupt.reachable("main", 50).toArray());
+    }
+}
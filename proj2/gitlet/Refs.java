@@ -0,0 +1,392 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.exitWithError;
+import static gitlet.Utils.join;
+
+/** The branch heads and HEAD of a repository.
+ *
+ *  A branch head is either loose, the file Refs/heads/NAME holding the
+ *  commit id, or packed, a line of the file packed-refs. A loose head
+ *  always wins over a packed one of the same name, so moving a branch
+ *  only ever writes its loose file, and pack-refs (or gc) moves the loose
+ *  heads into packed-refs so a repository with thousands of branches
+ *  lists and resolves them from one small file.
+ *
+ *  File layout of packed-refs:  "# gitlet packed-refs" line
+ *                               | ("ID NAME" line)*, sorted by NAME
+ *
+ *  What is read is cached for the rest of the command: HEAD and each
+ *  loose head are read at most once, and packed-refs once. A process
+ *  that runs many commands calls refresh between them, which drops HEAD
+ *  and the loose heads and keeps packed-refs unless its modification
+ *  time or length changed.
+ *
+ *  Every file is written to NAME.lock, created only if there is none, and
+ *  renamed over NAME, so two commands never move the same ref at once and
+ *  a reader always sees a whole file.
+ *
+ *  @author Jiehao Guan
+ */
+public class Refs {
+    /* The first line of packed-refs */
+    static final String PACKED_HEADER = "# gitlet packed-refs";
+
+    /* The prefix of the contents of HEAD */
+    private static final String HEAD_PREFIX = "ref: refs/heads/";
+
+    private final File headFile;
+    private final File headsDir;
+    private final File packedFile;
+
+    /* The current branch, or null if HEAD was not read yet */
+    private String head;
+
+    /* The loose heads read so far, null for a branch with no loose head */
+    private final Map<String, String> loose = new HashMap<>();
+
+    /* The packed heads, or null if packed-refs was not read yet */
+    private Map<String, String> packed;
+
+    /* The modification time and length of packed-refs when it was read,
+     * or null if there was no file
+     */
+    private FileTime packedTime;
+    private long packedLength;
+
+    /* The names of all the branches, or null if they were not listed yet */
+    private SortedSet<String> branches;
+
+    public Refs(File gitletDir) {
+        headFile = join(gitletDir, "HEAD");
+        headsDir = join(gitletDir, "Refs", "heads");
+        packedFile = join(gitletDir, "packed-refs");
+    }
+
+    /* Drop what another process may have changed since it was read */
+    public void refresh() {
+        head = null;
+        loose.clear();
+        branches = null;
+        if (packed != null) {
+            FileTime time = packedTime;
+            long length = packedLength;
+            stampPacked();
+            if (packedTime == null ? time != null
+                    : !packedTime.equals(time) || packedLength != length) {
+                packed = null;
+            }
+        }
+    }
+
+    /* Get the current branch */
+    public String getHead() {
+        if (head == null) {
+            head = Utils.readContentsAsString(headFile).replace(HEAD_PREFIX, "");
+        }
+        return head;
+    }
+
+    /* Make BRANCHNAME the current branch */
+    public void setHead(String branchName) {
+        writeRef(headFile, HEAD_PREFIX + branchName);
+        head = branchName;
+    }
+
+    /* Get the commit id the branch BRANCHNAME points to, or null if there
+     * is no such branch
+     */
+    public String resolve(String branchName) {
+        String id = readLoose(branchName);
+        return id != null ? id : getPacked().get(branchName);
+    }
+
+    /* Check if the branch BRANCHNAME exists */
+    public boolean exists(String branchName) {
+        return resolve(branchName) != null;
+    }
+
+    /* Get the names of all the branches, sorted */
+    public List<String> getBranches() {
+        if (branches == null) {
+            branches = new TreeSet<>(getPacked().keySet());
+            addLoose(headsDir, "", branches);
+        }
+        return new ArrayList<>(branches);
+    }
+
+    /* Point the branch BRANCHNAME at the commit ID, creating it if needed
+     * a fetched branch R/B is the file B in the directory R, so no branch
+     * may be named like a directory of another
+     */
+    public void update(String branchName, String id) {
+        if (!exists(branchName)) {
+            String other = findInTheWay(branchName);
+            if (other != null) {
+                exitWithError("Cannot create branch " + branchName
+                        + ": the branch " + other + " is in the way.");
+            }
+        }
+        File file = join(headsDir, branchName);
+        /* left empty by a branch R/B deleted while its lock was held */
+        if (file.isDirectory()) {
+            removeEmptyDirectories(file);
+        }
+        writeRef(file, id);
+        loose.put(branchName, id);
+        if (branches != null) {
+            branches.add(branchName);
+        }
+    }
+
+    /* Delete the branch BRANCHNAME, loose and packed */
+    public void delete(String branchName) {
+        File file = join(headsDir, branchName);
+        if (getPacked().containsKey(branchName)) {
+            File lock = lock(packedFile);
+            Map<String, String> heads;
+            try {
+                heads = readPacked();
+                heads.remove(branchName);
+            } catch (RuntimeException excp) {
+                lock.delete();
+                throw excp;
+            }
+            commit(lock, packedFile, formatPacked(heads));
+            packed = heads;
+        }
+        file.delete();
+        removeEmptyDirectories(file.getParentFile());
+        loose.put(branchName, null);
+        if (branches != null) {
+            branches.remove(branchName);
+        }
+    }
+
+    /* Move every loose head into packed-refs. Returns the number of heads
+     * moved. A loose head is only deleted once packed-refs holds it, and
+     * under its own lock, so a branch moved meanwhile keeps its new head.
+     */
+    public int pack() {
+        File lock = lock(packedFile);
+        Map<String, String> heads;
+        Map<String, String> moved = new TreeMap<>();
+        try {
+            heads = readPacked();
+            SortedSet<String> names = new TreeSet<>();
+            addLoose(headsDir, "", names);
+            for (String name : names) {
+                File file = join(headsDir, name);
+                if (file.isFile()) {
+                    String id = Utils.readContentsAsString(file);
+                    heads.put(name, id);
+                    moved.put(name, id);
+                }
+            }
+        } catch (RuntimeException excp) {
+            lock.delete();
+            throw excp;
+        }
+        commit(lock, packedFile, formatPacked(heads));
+        packed = heads;
+
+        for (Map.Entry<String, String> head : moved.entrySet()) {
+            File file = join(headsDir, head.getKey());
+            File fileLock = new File(file.getPath() + ".lock");
+            try {
+                Files.createFile(fileLock.toPath());
+            } catch (IOException excp) {
+                /* another command is moving the branch: its loose head wins */
+                continue;
+            }
+            if (head.getValue().equals(Utils.readContentsAsString(file))) {
+                file.delete();
+            }
+            fileLock.delete();
+            removeEmptyDirectories(file.getParentFile());
+        }
+        loose.clear();
+        return moved.size();
+    }
+
+    /* Find a branch named like a directory of BRANCHNAME, or named
+     * under BRANCHNAME as a directory, or null if there is none. Only
+     * the files on the path of BRANCHNAME are looked at, not every branch.
+     */
+    private String findInTheWay(String branchName) {
+        for (String other : getPacked().keySet()) {
+            if (other.startsWith(branchName + "/") || branchName.startsWith(other + "/")) {
+                return other;
+            }
+        }
+        for (int slash = branchName.indexOf('/'); slash >= 0;
+             slash = branchName.indexOf('/', slash + 1)) {
+            String parent = branchName.substring(0, slash);
+            if (join(headsDir, parent).isFile()) {
+                return parent;
+            }
+        }
+        File dir = join(headsDir, branchName);
+        if (dir.isDirectory()) {
+            SortedSet<String> names = new TreeSet<>();
+            addLoose(dir, branchName + "/", names);
+            return names.isEmpty() ? null : names.first();
+        }
+        return null;
+    }
+
+    /* Read the loose head of BRANCHNAME, or null if it has none */
+    private String readLoose(String branchName) {
+        if (loose.containsKey(branchName)) {
+            return loose.get(branchName);
+        }
+        File file = join(headsDir, branchName);
+        String id = file.isFile() ? Utils.readContentsAsString(file) : null;
+        loose.put(branchName, id);
+        return id;
+    }
+
+    /* add the loose heads under DIR to NAMES, with their names after PREFIX */
+    private static void addLoose(File dir, String prefix, SortedSet<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addLoose(file, prefix + file.getName() + "/", names);
+            } else if (!file.getName().endsWith(".lock")) {
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /* Delete DIR and its parents while they are empty, up to the heads */
+    private void removeEmptyDirectories(File dir) {
+        while (!dir.equals(headsDir) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /* Get the packed heads, reading packed-refs the first time */
+    private Map<String, String> getPacked() {
+        if (packed == null) {
+            packed = readPacked();
+        }
+        return packed;
+    }
+
+    /* Read packed-refs as it is on disk now */
+    private Map<String, String> readPacked() {
+        stampPacked();
+        Map<String, String> heads = new HashMap<>();
+        if (packedTime == null) {
+            return heads;
+        }
+        String contents = Utils.readContentsAsString(packedFile);
+        int start = 0;
+        while (start < contents.length()) {
+            int end = contents.indexOf('\n', start);
+            if (end < 0) {
+                end = contents.length();
+            }
+            String line = contents.substring(start, end);
+            start = end + 1;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw Utils.error("Corrupt packed-refs line: %s", line);
+            }
+            heads.put(line.substring(space + 1), line.substring(0, space));
+        }
+        return heads;
+    }
+
+    /* Remember the modification time and length packed-refs has now */
+    private void stampPacked() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(packedFile.toPath(),
+                    BasicFileAttributes.class);
+            packedTime = attrs.lastModifiedTime();
+            packedLength = attrs.size();
+        } catch (IOException excp) {
+            packedTime = null;
+        }
+    }
+
+    /* Get the contents of packed-refs holding HEADS */
+    private static String formatPacked(Map<String, String> heads) {
+        StringBuilder out = new StringBuilder(PACKED_HEADER).append('\n');
+        for (Map.Entry<String, String> head : new TreeMap<>(heads).entrySet()) {
+            out.append(head.getValue()).append(' ').append(head.getKey()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /* write the contents to the ref file
+     * the new contents go to a .lock file, created only if there is none,
+     * so two commands never move the same ref at once. The lock is synced
+     * and renamed over the ref, so the ref always holds a whole id.
+     */
+    static void writeRef(File ref, String contents) {
+        /* the head of a fetched branch lives under the name of its remote */
+        ref.getParentFile().mkdirs();
+        commit(lock(ref), ref, contents);
+    }
+
+    /* Take the lock of FILE, the empty file FILE.lock, which is returned */
+    private static File lock(File file) {
+        File lock = new File(file.getPath() + ".lock");
+        try {
+            Files.createFile(lock.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            exitWithError("Unable to lock " + file.getName()
+                    + ": another gitlet command is running.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return lock;
+    }
+
+    /* Write CONTENTS to the LOCK of FILE, sync it and rename it over FILE */
+    private static void commit(File lock, File file, String contents) {
+        try (FileChannel out = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            lock.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(lock.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            lock.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncDirectory(file.getParentFile());
+    }
+}
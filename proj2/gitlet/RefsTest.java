@@ -0,0 +1,205 @@
+package gitlet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/** Tests of the loose and packed branch heads, the locks and the per
+ *  command cache of Refs.
+ *  @author Jiehao Guan
+ */
+public class RefsTest {
+    private static final String ONE = "1111111111111111111111111111111111111111";
+    private static final String TWO = "2222222222222222222222222222222222222222";
+    private static final String THREE = "3333333333333333333333333333333333333333";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File gitletDir;
+
+    @Before
+    public void setUp() throws IOException {
+        gitletDir = folder.newFolder(".gitlet");
+        new Refs(gitletDir).setHead("master");
+    }
+
+    private File loose(String branchName) {
+        return Utils.join(gitletDir, "Refs", "heads", branchName);
+    }
+
+    private File packedFile() {
+        return Utils.join(gitletDir, "packed-refs");
+    }
+
+    @Test
+    /** pack moves every loose head into packed-refs, from where they
+     *  resolve and list as before */
+    public void packedRefsResolve() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        refs.update("R1/master", TWO);
+        assertEquals(2, refs.pack());
+        assertFalse(loose("master").exists());
+        assertFalse(loose("R1").exists());
+        assertEquals(Refs.PACKED_HEADER + "\n" + TWO + " R1/master\n" + ONE + " master\n",
+                Utils.readContentsAsString(packedFile()));
+
+        Refs fresh = new Refs(gitletDir);
+        assertEquals(ONE, fresh.resolve("master"));
+        assertEquals(TWO, fresh.resolve("R1/master"));
+        assertNull(fresh.resolve("other"));
+        assertEquals(Arrays.asList("R1/master", "master"), fresh.getBranches());
+    }
+
+    @Test
+    /** A loose head wins over a packed one of the same name, until the
+     *  next pack moves it in */
+    public void looseOverridesPacked() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        refs.pack();
+        refs.update("master", TWO);
+        assertTrue(loose("master").isFile());
+        assertEquals(TWO, refs.resolve("master"));
+        assertEquals(TWO, new Refs(gitletDir).resolve("master"));
+        assertEquals(Arrays.asList("master"), new Refs(gitletDir).getBranches());
+
+        assertEquals(1, refs.pack());
+        assertFalse(loose("master").exists());
+        assertEquals(TWO, new Refs(gitletDir).resolve("master"));
+    }
+
+    @Test
+    /** A deleted branch is gone from packed-refs and its loose file */
+    public void deleteRemovesBoth() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("other", ONE);
+        refs.pack();
+        refs.update("other", TWO);
+        refs.delete("other");
+        assertFalse(refs.exists("other"));
+        assertFalse(new Refs(gitletDir).exists("other"));
+        assertFalse(loose("other").exists());
+        assertTrue(new Refs(gitletDir).getBranches().isEmpty());
+    }
+
+    @Test
+    /** A held lock stops a second writer, and leaves the ref alone */
+    public void heldLockIsReported() throws IOException {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        File lock = new File(loose("master").getPath() + ".lock");
+        assertTrue(lock.createNewFile());
+        try {
+            refs.update("master", TWO);
+            fail("the ref was moved while its lock was held");
+        } catch (GitletException excp) {
+            assertEquals("Unable to lock master: another gitlet command is running.",
+                    excp.getMessage());
+        }
+        assertEquals(ONE, new Refs(gitletDir).resolve("master"));
+        assertTrue(lock.isFile());
+        assertEquals(Arrays.asList("master"), new Refs(gitletDir).getBranches());
+
+        File packedLock = new File(packedFile().getPath() + ".lock");
+        assertTrue(packedLock.createNewFile());
+        try {
+            refs.pack();
+            fail("packed-refs was written while its lock was held");
+        } catch (GitletException excp) {
+            assertEquals("Unable to lock packed-refs: another gitlet command is running.",
+                    excp.getMessage());
+        }
+        assertFalse(packedFile().exists());
+    }
+
+    @Test
+    /** pack keeps the loose head of a branch whose lock is held, since
+     *  the command holding it may be moving the branch */
+    public void packSkipsLockedHeads() throws IOException {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        refs.update("other", TWO);
+        assertTrue(new File(loose("other").getPath() + ".lock").createNewFile());
+        assertEquals(2, refs.pack());
+        assertFalse(loose("master").exists());
+        assertTrue(loose("other").isFile());
+        assertEquals(TWO, new Refs(gitletDir).resolve("other"));
+    }
+
+    @Test
+    /** HEAD and the loose heads are read once per command, and read again
+     *  after refresh */
+    public void headIsCachedUntilRefresh() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        assertEquals("master", refs.getHead());
+        assertEquals(ONE, refs.resolve("master"));
+
+        /* another process switches branches and moves master */
+        Refs other = new Refs(gitletDir);
+        other.setHead("other");
+        other.update("master", TWO);
+        assertEquals("master", refs.getHead());
+        assertEquals(ONE, refs.resolve("master"));
+
+        refs.refresh();
+        assertEquals("other", refs.getHead());
+        assertEquals(TWO, refs.resolve("master"));
+    }
+
+    @Test
+    /** packed-refs is kept across refresh unless it changed on disk */
+    public void packedIsReadAgainOnlyWhenChanged() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("master", ONE);
+        refs.pack();
+        assertEquals(ONE, refs.resolve("master"));
+
+        Refs other = new Refs(gitletDir);
+        other.update("topic", THREE);
+        other.pack();
+        refs.refresh();
+        assertEquals(THREE, refs.resolve("topic"));
+        assertEquals(Arrays.asList("master", "topic"), refs.getBranches());
+
+        other.refresh();
+        other.delete("topic");
+        refs.refresh();
+        assertFalse(refs.exists("topic"));
+        assertEquals(ONE, refs.resolve("master"));
+    }
+
+    @Test
+    /** delete releases the lock of packed-refs when it cannot read it */
+    public void deleteReleasesLockOnError() {
+        Refs refs = new Refs(gitletDir);
+        refs.update("other", ONE);
+        refs.pack();
+        assertTrue(refs.exists("other"));
+
+        Utils.writeContents(packedFile(), Refs.PACKED_HEADER + "\ncorrupt\n");
+        try {
+            refs.delete("other");
+            fail("a corrupt packed-refs was read");
+        } catch (GitletException excp) {
+            assertEquals("Corrupt packed-refs line: corrupt", excp.getMessage());
+        }
+        assertFalse(new File(packedFile().getPath() + ".lock").exists());
+
+        /* once packed-refs is mended, it can be locked again */
+        Utils.writeContents(packedFile(), Refs.PACKED_HEADER + "\n");
+        Refs fresh = new Refs(gitletDir);
+        fresh.update("master", TWO);
+        assertEquals(1, fresh.pack());
+        assertEquals(TWO, new Refs(gitletDir).resolve("master"));
+    }
+}
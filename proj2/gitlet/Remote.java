@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.join;
+
+/** Another gitlet repository on the local filesystem, known by the path
+ *  of its .gitlet directory, and the copying of objects between two
+ *  repositories for push and fetch.
+ *
+ *  Only the objects the receiving side lacks are copied. The walk starts
+ *  at the commit being sent and stops at every commit the receiver
+ *  already has, since it then has all of that commit's history too. In
+ *  the same way, the trees of the new commits are walked from the root,
+ *  skipping any subtree the receiver has, so an unchanged directory
+ *  costs one lookup however many files it holds.
+ *
+ *  Blobs are written first, then trees with every subtree before its
+ *  parent, then commits oldest first. An interrupted copy therefore
+ *  never leaves an object whose contents are missing, which the "has
+ *  it, so has everything below it" rule depends on. The whole copy is
+ *  one batch of the receiving store, so it is written as one pack once
+ *  it holds ObjectStore.PACK_THRESHOLD objects. Blobs stored larger than
+ *  STREAM_THRESHOLD are streamed across instead of read onto the heap.
+ *
+ *  @author Jiehao Guan
+ */
+public class Remote {
+    /* Blobs stored larger than this are streamed instead of read */
+    private static final long STREAM_THRESHOLD = 1024 * 1024;
+
+    /* The .gitlet directory of the remote */
+    private final File gitletDir;
+
+    /* The objects of the remote */
+    private final ObjectStore store;
+
+    /* The branch heads of the remote */
+    private final Refs refs;
+
+    public Remote(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.store = new ObjectStore(join(gitletDir, "Objects"));
+        this.refs = new Refs(gitletDir);
+    }
+
+    /* Check if the remote repository exists */
+    public boolean exists() {
+        return gitletDir.isDirectory();
+    }
+
+    public ObjectStore getStore() {
+        return store;
+    }
+
+    /* Get the branch heads of the remote */
+    public Refs getRefs() {
+        return refs;
+    }
+
+    /* Get the head of the remote's branch BRANCHNAME, or null if the
+     * remote has no such branch
+     */
+    public String getBranchHead(String branchName) {
+        return refs.resolve(branchName);
+    }
+
+    /* An object to copy */
+    private static class Item {
+        final String id;
+        final byte type;
+        /* The payload, read while walking */
+        final byte[] payload;
+
+        Item(String id, byte type, byte[] payload) {
+            this.id = id;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /* Copy the commit HEAD and everything it refers to from SOURCE to
+     * TARGET, leaving out whatever TARGET already has. Returns the number
+     * of objects copied.
+     */
+    public static int copyObjects(ObjectStore source, ObjectStore target, String head) {
+        List<Item> commits = new ArrayList<>();
+        List<Item> trees = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        /* both walks are post-order: an object is listed only once all it
+         * refers to is listed, which is the order they are written in.
+         * An object stays on the stack while its children are walked and
+         * is listed when it comes back to the top.
+         */
+        List<String> roots = new ArrayList<>();
+        Map<String, Item> open = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            Item item = open.remove(id);
+            if (item != null) {
+                stack.pop();
+                commits.add(item);
+                continue;
+            }
+            if (!seen.add(id) || target.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            byte[] payload = source.read(id, ObjectStore.COMMIT);
+            Commit commit = Commit.decode(id, payload);
+            open.put(id, new Item(id, ObjectStore.COMMIT, payload));
+            if (commit.hasTree()) {
+                roots.add(commit.getTreeId());
+            } else {
+                addBlobs(commit.getBlobs().values(), target, seen, blobs);
+            }
+            for (String parent : commit.getParents()) {
+                if (!seen.contains(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+
+        for (String root : roots) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                Item item = open.remove(id);
+                if (item != null) {
+                    stack.pop();
+                    trees.add(item);
+                    continue;
+                }
+                if (!seen.add(id) || target.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                byte[] payload = source.read(id, ObjectStore.TREE);
+                open.put(id, new Item(id, ObjectStore.TREE, payload));
+                List<String> files = new ArrayList<>();
+                for (Tree.Entry entry : Tree.decode(payload).getEntries().values()) {
+                    if (!entry.isTree()) {
+                        files.add(entry.id);
+                    } else if (!seen.contains(entry.id)) {
+                        stack.push(entry.id);
+                    }
+                }
+                addBlobs(files, target, seen, blobs);
+            }
+        }
+
+        int count = blobs.size() + trees.size() + commits.size();
+        target.beginBatch();
+        try {
+            for (String blob : blobs) {
+                if (source.storedSize(blob) > STREAM_THRESHOLD) {
+                    target.copyBlob(source, blob);
+                } else {
+                    target.write(blob, ObjectStore.BLOB, source.read(blob, ObjectStore.BLOB));
+                }
+            }
+            for (Item item : trees) {
+                target.write(item.id, item.type, item.payload);
+            }
+            for (Item item : commits) {
+                target.write(item.id, item.type, item.payload);
+            }
+            target.commitBatch();
+        } catch (RuntimeException excp) {
+            target.abortBatch();
+            throw excp;
+        }
+        return count;
+    }
+
+    /* Add to BLOBS each of IDS not yet seen that TARGET lacks */
+    private static void addBlobs(Iterable<String> ids, ObjectStore target,
+                                 Set<String> seen, List<String> blobs) {
+        for (String id : ids) {
+            if (seen.add(id) && !target.contains(id)) {
+                blobs.add(id);
+            }
+        }
+    }
+}
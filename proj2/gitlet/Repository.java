@@ -1,8 +1,21 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -25,13 +38,36 @@ public class Repository {
 
     public static final File OBJECTS_DIR = join(GITLET_DIR, "Objects");
 
-    private static final File HEAD = join(GITLET_DIR, "HEAD");
+    /* The loose and packed objects of this repository */
+    public static final ObjectStore OBJECT_STORE = new ObjectStore(OBJECTS_DIR);
 
     private static final File REFS_DIR = join(GITLET_DIR, "Refs");
 
     private static final File BRANCH_HEADS_DIR = join(REFS_DIR, "heads");
+
+    /* The branch heads and HEAD, cached for the command, see Refs */
+    private static final Refs REFS = new Refs(GITLET_DIR);
     private static final String DEFAULT_BRANCH_NAME = "master";
 
+    /* The commit-graph file, see CommitGraph */
+    private static final File COMMIT_GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+
+    /* The reachability bitmaps of the branches, see ReachabilityBitmaps */
+    private static final File BITMAPS_FILE = join(GITLET_DIR, "commit-graph-bitmaps");
+
+    /* The commit message index and its pending part, see MessageIndex */
+    private static final File MESSAGE_INDEX_FILE = join(GITLET_DIR, "message-index");
+    private static final File MESSAGE_PENDING_FILE = join(GITLET_DIR, "message-index-pending");
+
+    /* The remotes, one file per remote holding the path of its .gitlet */
+    private static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
+
+    /* The seconds gc leaves unreachable objects alone after they are written */
+    private static final long GC_GRACE = Long.getLong("gitlet.gcGrace", 14 * 24 * 60 * 60);
+
+    /* The commit graph, loaded the first time it is needed */
+    private static CommitGraph commitGraph;
+
     /* The index file for staging area */
     public static File STAGE = join(GITLET_DIR, "stage");
 
@@ -39,8 +75,7 @@ public class Repository {
     public static void init() {
         /* Failure case */
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            exitWithError("A Gitlet version-control system already exists in the current directory.");
         }
 
         /* Create a .gitlet directory */
@@ -59,7 +94,10 @@ public class Repository {
      *     |--Commits and Blobs
      * |-- refs
      *     |-- heads
+     *         |-- R
+     *             |-- branches fetched from the remote R
      * |--HEAD
+     * |--packed-refs, once pack-refs or gc ran
      * |--Stage
      */
     private static void createInitDirectory() {
@@ -67,76 +105,235 @@ public class Repository {
         OBJECTS_DIR.mkdir();
         REFS_DIR.mkdir();
         BRANCH_HEADS_DIR.mkdir();
-        HEAD.mkdir();
-        STAGE.mkdir();
+        new StagingArea().save();
     }
 
     /* Set the HEAD pointer to the selected branch */
     private static void setHEAD(String branchName) {
-        writeContents(HEAD, join(BRANCH_HEADS_DIR, branchName));
+        REFS.setHead(branchName);
     }
 
     /* Create the initial commit file */
     private static void setInitCommit(){
+        OBJECT_STORE.beginBatch();
         Commit initCommit = new Commit();
         initCommit.save();
+        OBJECT_STORE.commitBatch();
+        recordCommit(initCommit);
         updateBranchHead(DEFAULT_BRANCH_NAME, initCommit.getSha1ID());
     }
 
-    /* update the current Branch head to the new commit
-    *  find the branch head file in the directory
-    */
+    /* update the current Branch head to the new commit */
     private static void updateBranchHead(String branchName, String id) {
-        File branchHeadFile = getBranchHeadFile(branchName);
-        updateBranchHead(branchHeadFile, id);
+        REFS.update(branchName, id);
     }
 
-    /* save the commit id to the branch head */
-    private static void updateBranchHead(File branchHeadFile, String id) {
-        writeContents(branchHeadFile, id);
+    /* Drop whatever is cached from disk that another process has changed
+     * since, for the daemon, which runs many commands in one process
+     */
+    static void refresh() {
+        OBJECT_STORE.refresh();
+        REFS.refresh();
+        if (commitGraph != null && !commitGraph.isCurrent()) {
+            commitGraph = null;
+        }
     }
 
     /* get the current branch */
-    private String getCurrentBranch() {
-        String branchName = Utils.readContentsAsString(HEAD);
-        return branchName.replace("ref: refs/heads/", "");
+    private static String getCurrentBranch() {
+        return REFS.getHead();
+    }
+
+    /* get the commit id the branch head points to, or null if there is
+     * no such branch
+     */
+    private static String getBranchHead(String branchName) {
+        return REFS.resolve(branchName);
     }
 
-    /* find the branch head file in the directory */
-    private static File getBranchHeadFile(String branchName) {
-        return join(BRANCH_HEADS_DIR, branchName);
+    /* get the commit graph of the repository */
+    private static CommitGraph getCommitGraph() {
+        if (commitGraph == null) {
+            commitGraph = CommitGraph.load(COMMIT_GRAPH_FILE);
+        }
+        return commitGraph;
+    }
+
+    /* add a new commit to the commit graph */
+    private static void recordCommit(Commit commit) {
+        CommitGraph graph = getCommitGraph();
+        int pos = graph.position(commit.getSha1ID());
+        graph.save();
+
+        MessageIndex index = MessageIndex.load(MESSAGE_INDEX_FILE, MESSAGE_PENDING_FILE, graph);
+        index.add(pos, commit.getMessage());
+        index.update();
     }
 
-    /* The add command */
+    /* read the commit with the id from the objects */
+    private static Commit readCommit(String id) {
+        return Commit.read(id);
+    }
+
+    /* The add command for one file */
     public void add(String filename) {
-        File file = getFile(filename);
-        validateFile(file);
+        add(Collections.singletonList(filename));
+    }
+
+    /* The add command
+     * directories are added with every file under them
+     */
+    public void add(List<String> paths) {
+        List<String> filenames = new ArrayList<>();
+        for (String path : paths) {
+            File file = getFile(path);
+            validateFile(file);
+            if (file.isDirectory()) {
+                /* named from the working directory, so . or a/../b
+                 * add the same files as the plain name would
+                 */
+                File dir = file.toPath().normalize().toFile();
+                String relative = CWD.toPath().relativize(dir.toPath()).toString()
+                        .replace(File.separatorChar, Tree.SEPARATOR);
+                SortedSet<String> files = new TreeSet<>();
+                addWorkingFiles(dir, relative.isEmpty() ? "" : relative + Tree.SEPARATOR, files);
+                filenames.addAll(files);
+            } else {
+                filenames.add(path);
+            }
+        }
 
-        /* check if this blob exists in the current commit and stage
-         * and decide whether to add the blob to the stage and save or not
-         */
-        Blob blob = new Blob(filename, file);
-        String blobID = Utils.sha1(blob);
         StagingArea stage = StagingArea.fromFile();
+        Map<String, String> currentBlobs = filenames.size() == 1
+                ? null : getCurrentCommit().getBlobs();
+        OBJECT_STORE.beginBatch();
+        List<AddedFile> hashed = hashFiles(filenames, stage, currentBlobs);
+        OBJECT_STORE.commitBatch();
 
-        /* if the current commit has this blob
-         * then remove it from stage if it is already there
-         * if false, then do nothing
+        /* check if this blob exists in the current commit and stage
+         * and decide whether to add the blob to the stage or not
+         * the stage is only changed here, once, after all the hashing
          */
-        if (checkCurrentCommit(filename, blobID)) {
-            if (checkRemoved(filename, stage)) {
-                stage.getRemoved().remove(filename);
+        for (AddedFile added : hashed) {
+            String filename = added.filename;
+            String blobID = added.blobID;
+            if (added.attrs != null) {
+                stage.cacheID(filename, added.attrs, blobID);
             }
-            if (checkAdded(filename, blobID, stage)) {
+
+            /* if the current commit has this blob
+             * then remove it from stage if it is already there
+             */
+            if (added.inCurrentCommit) {
+                stage.getRemoved().remove(filename);
                 stage.getAdded().remove(filename);
+            } else if (!checkAdded(filename, blobID, stage)) {
+                stage.getRemoved().remove(filename);
+                stage.getAdded().put(filename, blobID);
             }
-        } else if (!checkAdded(filename, blobID, stage)) {
-            stage.getAdded().put(filename, blobID);
-            blob.save();
         }
         stage.save();
     }
 
+    /* A file hashed by the add command */
+    private static class AddedFile {
+        String filename;
+        String blobID;
+        /* The stat to cache, null if the cached blob id was used */
+        BasicFileAttributes attrs;
+        boolean inCurrentCommit;
+    }
+
+    /* Hash the files and save the new blobs, in parallel on a
+     * work-stealing pool. Only files whose stat changed are read.
+     * CURRENTBLOBS is the file map of the current commit, or null to look
+     * each file up in its tree.
+     */
+    private List<AddedFile> hashFiles(List<String> filenames, StagingArea stage,
+                                      Map<String, String> currentBlobs) {
+        Commit current = getCurrentCommit();
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("gitlet.threads",
+                Runtime.getRuntime().availableProcessors()));
+        try {
+            return pool.submit(() -> filenames.parallelStream().map(filename -> {
+                AddedFile added = new AddedFile();
+                added.filename = filename;
+                File file = getFile(filename);
+                BasicFileAttributes attrs = StagingArea.stat(file);
+                added.blobID = stage.getCachedID(filename, attrs);
+                Blob blob = null;
+                if (added.blobID == null) {
+                    blob = new Blob(filename, file);
+                    added.blobID = blob.getID();
+                    added.attrs = attrs;
+                }
+
+                String currentID = currentBlobs == null
+                        ? current.getBlob(filename) : currentBlobs.get(filename);
+                added.inCurrentCommit = added.blobID.equals(currentID);
+                if (!added.inCurrentCommit && written.add(added.blobID)
+                        && !OBJECT_STORE.contains(added.blobID)) {
+                    if (blob == null) {
+                        blob = new Blob(filename, file, added.blobID);
+                    }
+                    blob.save();
+                }
+                return added;
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException excp) {
+            Throwable cause = excp.getCause() == null ? excp : excp.getCause();
+            if (cause instanceof GitletException) {
+                throw (GitletException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* get the blob id of the file in the working directory, or null if it
+     * does not exist. The file is only read and hashed when its stat no
+     * longer matches the one cached in the staging area.
+     */
+    private String workingBlobID(String filename, StagingArea stage) {
+        File file = join(CWD, filename);
+        BasicFileAttributes attrs = StagingArea.stat(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            return null;
+        }
+        String blobID = stage.getCachedID(filename, attrs);
+        if (blobID == null) {
+            blobID = new Blob(filename, file).getID();
+            stage.cacheID(filename, attrs, blobID);
+        }
+        return blobID;
+    }
+
+    /* get the paths of all the files in the working directory, sorted */
+    private static SortedSet<String> workingFiles() {
+        SortedSet<String> result = new TreeSet<>();
+        addWorkingFiles(CWD, "", result);
+        return result;
+    }
+
+    /* add the files under DIR to RESULT, prefixing their names with PREFIX */
+    private static void addWorkingFiles(File dir, String prefix, SortedSet<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!f.equals(GITLET_DIR)) {
+                    addWorkingFiles(f, prefix + f.getName() + Tree.SEPARATOR, result);
+                }
+            } else if (f.isFile()) {
+                result.add(prefix + f.getName());
+            }
+        }
+    }
+
     /* The rm command */
     public void remove(String filename) {
         StagingArea stage = StagingArea.fromFile();
@@ -146,35 +343,21 @@ public class Repository {
             stage.getAdded().remove(filename);
             stage.save();
         }
-        if (getCurrentCommit().getBlobs().get(filename) != null) {
-            Utils.restrictedDelete(filename);
+        if (getCurrentCommit().getBlob(filename) != null) {
+            deleteWorkingFile(filename);
             stage.getRemoved().add(filename);
+            stage.uncache(filename);
             stage.save();
         } else {
             exitWithError("No reason to remove the file.");
         }
     }
 
-    /* check if the blob is in the current commit
-     *  return ture if it already exists
-     */
-    private boolean checkCurrentCommit(String filename, String sha1) {
-        return getCurrentCommit().getBlobs().get(filename) != null
-                && getCurrentCommit().getBlobs().get(filename).equals(sha1);
-    }
-
     /* check if the blob is in the added stage
      *  return ture if it already exists
      */
     private boolean checkAdded(String filename, String sha1, StagingArea Stage) {
-        return Stage.getAdded().get(filename).equals(sha1);
-    }
-
-    /* check if the blob is in the removed stage
-     *  return ture if it already exists
-     */
-    private boolean checkRemoved(String filename, StagingArea Stage) {
-        return Stage.getRemoved().contains(filename);
+        return sha1.equals(Stage.getAdded().get(filename));
     }
 
     /* Check if the file exists */
@@ -189,9 +372,7 @@ public class Repository {
 
     /* get the current commit */
     public static Commit getCurrentCommit() {
-        String currentCommit = readContentsAsString(HEAD);
-        File commit = Utils.getObjFile(currentCommit);
-        return readObject(commit, Commit.class);
+        return readCommit(getBranchHead(getCurrentBranch()));
     }
 
     /* The commit command */
@@ -204,13 +385,21 @@ public class Repository {
         }
 
         /* Copy the information from the current commit */
+        Commit current = getCurrentCommit();
         ArrayList<String> parents = new ArrayList<>();
-        parents.add(getCurrentCommit().getSha1ID());
-        Map<String, String> newBlobs = updateBlobs(stage);
+        parents.add(current.getSha1ID());
+
+        /* The trees and the commit are written to one batch,
+         * which is on disk before the branch head moves to it
+         */
+        OBJECT_STORE.beginBatch();
+        String newTree = updateTree(current, stage);
 
         /* Create a new Commit */
-        Commit newCommit = new Commit(msg, parents, newBlobs);
+        Commit newCommit = new Commit(msg, parents, newTree);
         newCommit.save();
+        OBJECT_STORE.commitBatch();
+        recordCommit(newCommit);
 
         /* Update the BranchHead */
         updateBranchHead(getCurrentBranch(), newCommit.getSha1ID());
@@ -220,122 +409,259 @@ public class Repository {
     }
 
 
-    /* Update the blobs map based on the staging area. */
-    private Map<String, String> updateBlobs(StagingArea stage) {
-        Commit current = getCurrentCommit();
-        Map<String, String> newBlobs = current.getBlobs();
-        newBlobs.putAll(stage.getAdded());
+    /* Update the tree of the commit based on the staging area.
+     * Only the trees on the staged paths are rewritten.
+     */
+    private String updateTree(Commit current, StagingArea stage) {
+        Map<String, String> changes = new TreeMap<>(stage.getAdded());
         for (String filename : stage.getRemoved()) {
-            newBlobs.remove(filename);
+            changes.put(filename, null);
         }
-        return newBlobs;
+        return Tree.update(OBJECT_STORE, current.getTreeId(), changes);
     }
 
     /* The log command */
-    public void log() {
-        Commit current = getCurrentCommit();
-        Commit parent = current.getParent(0);
-        Commit secondParent = current.getParent(1);
-
-        /* trace back the commit tree and print */
-        do {
-            System.out.println("===");
-            System.out.println("Commit " + current.getSha1ID());
-            if (secondParent != null) {
-                System.out.println("Merge: " +
-                        parent.getSha1ID().substring(0, 6) + " " +
-                        secondParent.getSha1ID().substring(0, 6));
-            }
-            System.out.println("Date:" + current.getTime());
-            System.out.println(current.getMessage());
-            System.out.println();
+    public void log(LogWriter out) {
+        CommitGraph graph = getCommitGraph();
+        int pos = graph.position(getBranchHead(getCurrentBranch()));
 
-            current = parent;
-            parent = current.getParent(0);
-            secondParent = current.getParent(1);
-        } while (parent != null);
+        /* trace back the first parents in the commit graph, reading only
+         * the commits that are printed
+         */
+        while (pos != CommitGraph.NONE && !out.isDone()) {
+            long timestamp = graph.getTimestamp(pos);
+            if (out.isBeforeRange(timestamp)) {
+                break;
+            }
+            if (!out.isAfterRange(timestamp)) {
+                out.print(readCommit(graph.getId(pos)));
+            }
+            pos = graph.getParent(pos, 0);
+        }
+        out.flush();
+        graph.save();
     }
 
     /* The global-log command */
-    public void globalLog() {
-        List<String> allCommits = findAllCommits();
-        for (String commitID : allCommits) {
-            Commit thisCommit = readObject(getObjFile(commitID), Commit.class);
-            printCommit(thisCommit);
-
+    public void globalLog(LogWriter out) {
+        CommitGraph graph = getCommitGraph();
+        int[] positions = reachableFromBranches().toArray();
+
+        /* newest first */
+        for (int i = positions.length - 1; i >= 0 && !out.isDone(); i -= 1) {
+            long timestamp = graph.getTimestamp(positions[i]);
+            if (!out.isAfterRange(timestamp) && !out.isBeforeRange(timestamp)) {
+                out.print(readCommit(graph.getId(positions[i])));
+            }
         }
+        out.flush();
     }
 
-    /* Find all commits */
-    private List<String> findAllCommits() {
-        List<String> commits = new ArrayList<>();
-        for (String branch : plainFilenamesIn(BRANCH_HEADS_DIR)) {
-            Commit commit = readObject(getBranchHeadFile(branch), Commit.class);
-            do {
-                if (!commits.contains(commit.getSha1ID())) {
-                    commits.add(commit.getSha1ID());
-                }
-                commit = commit.getParent(0);
-            } while (commit.getParents() != null);
+    /* get the commit-graph positions of every commit reachable from a branch
+     * as the union of the reachability bitmaps of the branches
+     */
+    private static Bitmap reachableFromBranches() {
+        CommitGraph graph = getCommitGraph();
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(BITMAPS_FILE, graph);
+        List<String> branches = getBranches();
+        Bitmap all = new Bitmap();
+        for (String branch : branches) {
+            all.or(bitmaps.reachable(branch, graph.position(getBranchHead(branch))));
         }
-        return commits;
+        bitmaps.retain(branches);
+        graph.save();
+        bitmaps.save();
+        return all;
     }
 
-    /* print the commit */
-    private void printCommit(Commit commit) {
-        System.out.println("===");
-        System.out.println("Commit " + commit.getSha1ID());
-        System.out.println("Date:" + commit.getTime());
-        System.out.println(commit.getMessage());
-        System.out.println();
+    /* get the names of all the branches */
+    private static List<String> getBranches() {
+        return REFS.getBranches();
     }
 
     /* The find command */
     public void find(String msg) {
-        List<String> allCommits = findAllCommits();
-        List<Commit> commits = new ArrayList<>();
-        for (String commitID : allCommits) {
-            Commit thisCommit = readObject(getObjFile(commitID), Commit.class);
-            if (thisCommit.getMessage().equals(msg)) {
-                commits.add(thisCommit);
-            }
-        }
+        find(msg, false);
+    }
 
-        if (commits.isEmpty()) {
+    /* The find command, matching messages that contain TEXT if SUBSTRING.
+     * The message index gives the matching positions without reading any
+     * commit, and only the ones reachable from a branch are printed.
+     */
+    public void find(String text, boolean substring) {
+        /* reachability first, as it adds any commit the graph lacks */
+        Bitmap reachable = reachableFromBranches();
+        CommitGraph graph = getCommitGraph();
+        MessageIndex index = MessageIndex.load(MESSAGE_INDEX_FILE, MESSAGE_PENDING_FILE, graph);
+        index.update();
+        Bitmap matches = substring ? index.findSubstring(text) : index.findExact(text);
+        int[] positions = matches.and(reachable).toArray();
+
+        if (positions.length == 0) {
             exitWithError("Found no commit with that message.");
-        } else {
-            for (Commit commit : commits) {
-                printCommit(commit);
-            }
         }
+        LogWriter out = new LogWriter();
+        for (int i = positions.length - 1; i >= 0 && !out.isDone(); i -= 1) {
+            out.print(readCommit(graph.getId(positions[i])));
+        }
+        out.flush();
     }
 
     /* The status command */
     public void status() {
         System.out.println("=== Branches ===");
-        for (String branchNames : plainFilenamesIn(BRANCH_HEADS_DIR)) {
-            if (getCurrentBranch().equals(branchNames)) {
+        String currentBranch = getCurrentBranch();
+        for (String branchNames : getBranches()) {
+            if (currentBranch.equals(branchNames)) {
                 System.out.println("*" + branchNames);
             } else {
                 System.out.println(branchNames);
             }
         }
 
+        StagingArea stage = StagingArea.fromFile();
         System.out.println("=== Staged Files ===");
-        Map<String, String> added = StagingArea.fromFile().getAdded();
+        Map<String, String> added = new TreeMap<>(stage.getAdded());
         for (String name : added.keySet()) {
             System.out.println(name);
         }
 
         System.out.println("=== Removed Files ===");
-        Set<String> removed = StagingArea.fromFile().getRemoved();
+        Set<String> removed = new TreeSet<>(stage.getRemoved());
         for (String name : removed) {
             System.out.println(name);
         }
 
+        /* Only the files whose stat changed are hashed */
         System.out.println("=== Modifications Not Staged For Commit ===");
+        Map<String, String> tracked = getCurrentCommit().getBlobs();
+        SortedSet<String> working = workingFiles();
+        Map<String, String> modifications = new TreeMap<>();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            String name = entry.getKey();
+            if (!removed.contains(name) && !added.containsKey(name)) {
+                checkModification(name, entry.getValue(), working, stage, modifications);
+            }
+        }
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            checkModification(entry.getKey(), entry.getValue(), working, stage, modifications);
+        }
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue() + ")");
+        }
 
         System.out.println("=== Untracked Files ===");
+        for (String name : working) {
+            if (!added.containsKey(name) && (!tracked.containsKey(name) || removed.contains(name))) {
+                System.out.println(name);
+            }
+        }
+
+        /* Keep the hashes done for this status for the next one */
+        if (stage.isChanged()) {
+            stage.save();
+        }
+    }
+
+    /* Record in MODIFICATIONS if the file, expected to have the blob id,
+     * was deleted or modified in the working directory
+     */
+    private void checkModification(String filename, String blobID, SortedSet<String> working,
+                                   StagingArea stage, Map<String, String> modifications) {
+        if (!working.contains(filename)) {
+            modifications.put(filename, "deleted");
+        } else if (!blobID.equals(workingBlobID(filename, stage))) {
+            modifications.put(filename, "modified");
+        }
+    }
+
+    /* The diff command: the working directory against the stage, that is
+     * the current commit with the staged changes applied. Only the files
+     * whose stat changed are hashed, and only the ones whose blob id then
+     * differs are read.
+     */
+    public void diff() {
+        StagingArea stage = StagingArea.fromFile();
+        Map<String, String> index = new TreeMap<>(getCurrentCommit().getBlobs());
+        index.keySet().removeAll(stage.getRemoved());
+        index.putAll(stage.getAdded());
+
+        Map<String, String[]> changes = new TreeMap<>();
+        for (Map.Entry<String, String> entry : index.entrySet()) {
+            String workingID = workingBlobID(entry.getKey(), stage);
+            if (!entry.getValue().equals(workingID)) {
+                changes.put(entry.getKey(), new String[] {entry.getValue(), workingID});
+            }
+        }
+        printDiffs(changes, true);
+        if (stage.isChanged()) {
+            stage.save();
+        }
+    }
+
+    /* The diff --cached command: the stage against the current commit */
+    public void diffCached() {
+        StagingArea stage = StagingArea.fromFile();
+        Commit current = getCurrentCommit();
+        Map<String, String[]> changes = new TreeMap<>();
+        for (Map.Entry<String, String> entry : stage.getAdded().entrySet()) {
+            changes.put(entry.getKey(), new String[] {current.getBlob(entry.getKey()),
+                entry.getValue()});
+        }
+        for (String filename : stage.getRemoved()) {
+            changes.put(filename, new String[] {current.getBlob(filename), null});
+        }
+        printDiffs(changes, false);
+    }
+
+    /* The diff command for two commits. The trees are compared first, so
+     * unchanged directories and files are skipped by id without being read.
+     */
+    public void diffCommits(String firstID, String secondID) {
+        checkCommitID(firstID);
+        checkCommitID(secondID);
+        printDiffs(Tree.diff(OBJECT_STORE, readCommit(firstID).getTreeId(),
+                readCommit(secondID).getTreeId()), false);
+    }
+
+    /* Print the diff of each file in CHANGES, a map of path to {old blob id,
+     * new blob id}. The new side is read from the working directory if
+     * INWORKINGDIR. The files are diffed in parallel, on a work-stealing
+     * pool as in add, and printed in order of path through one buffer.
+     */
+    private void printDiffs(Map<String, String[]> changes, boolean inWorkingDir) {
+        OutputStream out = new BufferedOutputStream(Utils.output(), 1 << 16);
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("gitlet.threads",
+                Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.submit(() -> changes.entrySet().parallelStream().map(entry -> {
+                String[] ids = entry.getValue();
+                byte[] before = ids[0] == null ? null : readBlob(ids[0]);
+                byte[] after = ids[1] == null ? null
+                        : inWorkingDir ? readContents(join(CWD, entry.getKey()))
+                        : readBlob(ids[1]);
+                return UnifiedDiff.format(entry.getKey(), before, after);
+            }).forEachOrdered(diff -> {
+                try {
+                    out.write(diff);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            })).get();
+            out.flush();
+        } catch (InterruptedException | ExecutionException excp) {
+            Throwable cause = excp.getCause() == null ? excp : excp.getCause();
+            if (cause instanceof GitletException) {
+                throw (GitletException) cause;
+            }
+            if (!(cause instanceof UncheckedIOException)) {
+                throw new IllegalArgumentException(cause.getMessage());
+            }
+        } catch (IOException excp) {
+            /* the output was closed, as when piped into head */
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /* The checkout command for the filename */
@@ -347,34 +673,54 @@ public class Repository {
 
     /* help checking if the commit contains this file */
     private void checkFilename(Commit commit, String filename) {
-        if (!commit.getBlobs().containsKey(filename)) {
+        if (commit.getBlob(filename) == null) {
             exitWithError("File does not exist in that commit.");
         }
     }
 
     /* Pull the file into the CWD */
     private void pullFileToCWD(Commit commit, String filename) {
-        if (Utils.join(CWD, filename).exists()) {
-            Utils.restrictedDelete(Utils.join(CWD, filename));
+        writeWorkingFile(filename, commit.getBlob(filename));
+    }
+
+    /* Write the blob to the working file, creating its directories */
+    private static void writeWorkingFile(String filename, String blobID) {
+        File file = join(CWD, filename);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory()) {
+            directory.mkdirs();
         }
+        OBJECT_STORE.copyTo(blobID, file);
+    }
 
-        File file = Utils.join(CWD, filename);
-        String fileID = commit.getBlobs().get(filename);
-        Blob blob = new Blob(filename, getObjFile(fileID));
-        writeObject(file, blob);
+    /* Delete the working file
+     * and then every directory above it that this leaves empty
+     */
+    private static void deleteWorkingFile(String filename) {
+        File file = join(CWD, filename);
+        if (!file.isFile() || !file.delete()) {
+            return;
+        }
+        for (File dir = file.getParentFile(); dir != null && !dir.equals(CWD);
+             dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length != 0 || !dir.delete()) {
+                break;
+            }
+        }
     }
 
     /* The checkout command for the commit */
     public void checkoutCommit(String commitID, String filename) {
         checkCommitID(commitID);
-        Commit thisCommit = readObject(getObjFile(commitID), Commit.class);
+        Commit thisCommit = readCommit(commitID);
         checkFilename(thisCommit, filename);
         pullFileToCWD(thisCommit, filename);
     }
 
     /* Help checking if the commit ID exists */
     private void checkCommitID(String id) {
-        if (!getObjFile(id).exists()) {
+        if (!OBJECT_STORE.contains(id)) {
             exitWithError("No commit with that id exists.");
         }
     }
@@ -386,74 +732,125 @@ public class Repository {
             exitWithError("No need to checkout the current branch.");
         }
 
-        Commit newCommit = readObject(getBranchHeadFile(branchName), Commit.class);
-        checkCWD(newCommit);
-        for (File f : CWD.listFiles()) {
-            if (!restrictedDelete(f)) {
-                exitWithError("Cannot delete the file: " + f.getName());
-            }
-        }
-        clearStage();
-        copyBlobs(newCommit);
+        Commit newCommit = readCommit(getBranchHead(branchName));
+        updateWorkingTree(newCommit);
         setHEAD(branchName);
     }
 
     /* Help checking if the branch exists */
     private void checkBranch(String branchName) {
-        if (!getBranchHeadFile(branchName).exists()) {
+        if (!REFS.exists(branchName)) {
             exitWithError("No such branch exists.");
         }
     }
 
     /* Help checking if any untracked files */
     private void checkCWD(Commit newCommit) {
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
-        List<String> untrackedFiles = new ArrayList<>();
+        Map<String, String[]> changes = Tree.diff(OBJECT_STORE,
+                getCurrentCommit().getTreeId(), newCommit.getTreeId());
+        checkCWD(newCommit, changes, StagingArea.fromFile());
+    }
 
-        /* check the current commit and stage */
-        Map<String, String> currentBlobs = getCurrentCommit().getBlobs();
-        StagingArea stage = StagingArea.fromFile();
-        for (String filename : fileList) {
-            if (currentBlobs.containsKey(filename)) {
-                if (stage.getRemoved().contains(filename)) {
-                    untrackedFiles.add(filename);
-                }
-            } else if (!stage.getAdded().containsKey(filename)) {
-                untrackedFiles.add(filename);
+    /* Help checking if any untracked files would be overwritten
+     * by moving to the new commit, given the changes between the trees
+     * of the current and the new commit
+     */
+    private void checkCWD(Commit newCommit, Map<String, String[]> changes, StagingArea stage) {
+        List<String> filesInTheWay = new ArrayList<>();
+
+        /* An untracked file can only be overwritten where the new commit
+         * has a file the current one does not, so only the paths where
+         * the trees differ are checked
+         */
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String filename = change.getKey();
+            if (change.getValue()[0] == null && change.getValue()[1] != null
+                    && !stage.getAdded().containsKey(filename)) {
+                filesInTheWay.add(filename);
+            }
+        }
+
+        /* Files staged for removal are untracked as well */
+        for (String filename : stage.getRemoved()) {
+            if (newCommit.getBlob(filename) != null) {
+                filesInTheWay.add(filename);
             }
         }
 
-        /* compare to the new commit */
-        Map<String, String> newBlobs = newCommit.getBlobs();
-        for (String filename : untrackedFiles) {
-            if (!newBlobs.containsKey(filename)) {
+        for (String filename : filesInTheWay) {
+            if (isInTheWay(filename, changes)) {
                 exitWithError("There is an untracked file in the way; " +
                         "delete it, or add and commit it first.");
             }
         }
     }
 
-    /* Clear the staging area */
-    private void clearStage() {
-        StagingArea stage = StagingArea.fromFile();
-        if (!stage.isClean()) {
-            stage.clean();
+    /* Check if something in the working directory is in the way of the
+     * new file. A directory is not, as long as every file under it is
+     * tracked and about to be deleted by the changes.
+     */
+    private boolean isInTheWay(String filename, Map<String, String[]> changes) {
+        File file = join(CWD, filename);
+        if (!file.isDirectory()) {
+            return file.exists();
         }
+        SortedSet<String> files = new TreeSet<>();
+        addWorkingFiles(file, filename + Tree.SEPARATOR, files);
+        for (String path : files) {
+            String[] change = changes.get(path);
+            if (change == null || change[0] == null || change[1] != null) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    /* Copy all the files from the commit */
-    private void copyBlobs(Commit commit) {
-        Map<String, String> blobs = commit.getBlobs();
-        for (String sha1 : blobs.values()) {
-            Blob blob = readObject(getObjFile(sha1), Blob.class);
-            File file = join(blob.getFilename());
-            writeContents(file, blob.getContent());
+    /* Move the working directory from the current commit to the new one
+     * and clear the staging area. Only the paths whose blobs differ
+     * between the two trees are touched: the files the new commit does
+     * not have are deleted and the new or changed ones are written,
+     * so a switch costs as much as the difference, not the whole tree.
+     */
+    private void updateWorkingTree(Commit newCommit) {
+        StagingArea stage = StagingArea.fromFile();
+        Map<String, String[]> changes = Tree.diff(OBJECT_STORE,
+                getCurrentCommit().getTreeId(), newCommit.getTreeId());
+        checkCWD(newCommit, changes, stage);
+
+        /* Deletions first, so a file can make way for a directory */
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleteWorkingFile(change.getKey());
+            }
+        }
+        Map<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] != null) {
+                writes.put(change.getKey(), change.getValue()[1]);
+            }
+        }
+
+        /* A file staged for removal is gone from the working directory
+         * even where the trees agree on it
+         */
+        for (String filename : stage.getRemoved()) {
+            String blobID = newCommit.getBlob(filename);
+            if (blobID != null && !changes.containsKey(filename)) {
+                writes.put(filename, blobID);
+            }
+        }
+        new Materializer(OBJECT_STORE, CWD, Materializer.DEFAULT_THREADS).write(writes);
+
+        if (!stage.isClean()) {
+            stage.clean();
         }
     }
 
     /* The branch command */
     public void branch(String branchName) {
-        checkBranchName(branchName);
+        if (REFS.exists(branchName)) {
+            exitWithError("A branch with that name already exists.");
+        }
 
         /* update the branch to the current commit */
         Commit current = getCurrentCommit();
@@ -462,8 +859,7 @@ public class Repository {
 
     /* Check if the branch exists */
     private void checkBranchName(String branchName) {
-        File branch = getBranchHeadFile(branchName);
-        if (!branch.exists()) {
+        if (!REFS.exists(branchName)) {
             exitWithError("A branch with that name does not exist.");
         }
     }
@@ -478,23 +874,246 @@ public class Repository {
         }
 
         /* delete the branch */
-        File branchToRemove = getBranchHeadFile(branchName);
-        branchToRemove.delete();
+        REFS.delete(branchName);
     }
 
     /* The reset command */
     public void reset(String commitID) {
         checkCommitID(commitID);
-        Commit newCommit = readObject(getObjFile(commitID), Commit.class);
-        checkCWD(newCommit);
-        for (File f : CWD.listFiles()) {
-            if (!restrictedDelete(f)) {
-                exitWithError("Cannot delete the file: " + f.getName());
+        Commit newCommit = readCommit(commitID);
+        updateWorkingTree(newCommit);
+        updateBranchHead(getCurrentBranch(), newCommit.getSha1ID());
+    }
+
+    /* The repack command */
+    public void repack() {
+        int count = OBJECT_STORE.repack();
+        System.out.println("Packed " + count + " objects.");
+    }
+
+    /* The pack-refs command */
+    public void packRefs() {
+        int count = REFS.pack();
+        System.out.println("Packed " + count + " refs.");
+    }
+
+    /* The count-objects command */
+    public void countObjects() {
+        ObjectStore.Counts counts = OBJECT_STORE.count();
+        long size = counts.looseSize + counts.packSize;
+        long raw = counts.looseRawSize + counts.packedRawSize;
+        System.out.println("loose objects: " + counts.loose);
+        System.out.println("loose size: " + counts.looseSize
+                + " bytes (" + counts.looseRawSize + " raw)");
+        System.out.println("packs: " + counts.packs);
+        System.out.println("packed objects: " + counts.packed
+                + " (" + counts.deltas + " deltas)");
+        System.out.println("pack size: " + counts.packSize
+                + " bytes (" + counts.packedRawSize + " raw)");
+        System.out.printf("total: %d bytes on disk, %d raw, %.1f%%%n",
+                size, raw, raw == 0 ? 100.0 : 100.0 * size / raw);
+    }
+
+    /* The gc command
+     * deletes every object no branch and no staged file needs, except
+     * those written in the last GC_GRACE seconds, which a command still
+     * running may be about to point a ref at. NOW drops the grace period.
+     * The branch heads are packed first, as by pack-refs.
+     */
+    public void gc(boolean now) {
+        REFS.pack();
+        Bitmap reachable = reachableFromBranches();
+        CommitGraph graph = getCommitGraph();
+        List<String> commits = new ArrayList<>(reachable.cardinality());
+        reachable.forEach(pos -> commits.add(graph.getId(pos)));
+        StagingArea stage = StagingArea.fromFile();
+        GarbageCollector collector = new GarbageCollector(OBJECT_STORE,
+                Integer.getInteger("gitlet.threads", GarbageCollector.DEFAULT_THREADS));
+        Set<String> live = collector.mark(commits, stage.getAdded().values());
+
+        long cutoff = now ? Long.MAX_VALUE : System.currentTimeMillis() - GC_GRACE * 1000;
+        Set<String> deleted = OBJECT_STORE.prune(live, cutoff);
+        /* a cached old commit may hold the id of a tree built for it */
+        CommitCache.getInstance().clear();
+
+        /* the commit graph and the files built on it must not name a
+         * deleted commit, so they are rebuilt from the branches when needed
+         */
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            if (deleted.contains(graph.getId(pos))) {
+                COMMIT_GRAPH_FILE.delete();
+                BITMAPS_FILE.delete();
+                MESSAGE_INDEX_FILE.delete();
+                MESSAGE_PENDING_FILE.delete();
+                commitGraph = null;
+                break;
             }
         }
-        clearStage();
-        copyBlobs(newCommit);
-        updateBranchHead(getCurrentBranch(), newCommit.getSha1ID());
+        System.out.println("Removed " + deleted.size() + " unreachable objects.");
+    }
+
+    /* The fast-import command
+     * reads the stream of FILE, or of the standard input if FILE is null,
+     * see FastImport. All the objects go into one pack, and the branches
+     * are only moved once it is in place. If the current branch moves,
+     * its new head is checked out as by reset, last, so files in the way
+     * only keep the current branch where it was.
+     */
+    public void fastImport(String file) {
+        InputStream in;
+        try {
+            in = file == null ? new FileInputStream(FileDescriptor.in) : new FileInputStream(file);
+        } catch (IOException excp) {
+            exitWithError("File does not exist.");
+            return;
+        }
+
+        CommitGraph graph = getCommitGraph();
+        MessageIndex index = MessageIndex.load(MESSAGE_INDEX_FILE, MESSAGE_PENDING_FILE, graph);
+        int root = graph.position(getCurrentCommit().getSha1ID());
+        while (graph.getParent(root, 0) != CommitGraph.NONE) {
+            root = graph.getParent(root, 0);
+        }
+        FastImport importer = new FastImport(OBJECT_STORE, in, GITLET_DIR, graph.getId(root),
+                Repository::getBranchHead,
+                commit -> index.add(graph.position(commit.getSha1ID()), commit.getMessage()));
+
+        OBJECT_STORE.beginBatch();
+        try (in) {
+            importer.run();
+            OBJECT_STORE.commitBatch();
+        } catch (IOException | RuntimeException excp) {
+            OBJECT_STORE.abortBatch();
+            /* the graph now holds commits that were never written */
+            commitGraph = null;
+            if (excp instanceof RuntimeException) {
+                throw (RuntimeException) excp;
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph.save();
+        index.update();
+        String currentBranch = getCurrentBranch();
+        for (Map.Entry<String, String> head : importer.getHeads().entrySet()) {
+            if (!head.getKey().equals(currentBranch)) {
+                updateBranchHead(head.getKey(), head.getValue());
+            }
+        }
+        String currentHead = importer.getHeads().get(currentBranch);
+        if (currentHead != null) {
+            updateWorkingTree(readCommit(currentHead));
+            updateBranchHead(currentBranch, currentHead);
+        }
+        System.out.println("Imported " + importer.getCommits() + " commits and "
+                + importer.getBlobs() + " blobs.");
+    }
+
+    /* The migrate command */
+    public void migrate() {
+        int count = Migration.migrate(OBJECT_STORE);
+        System.out.println("Migrated " + count + " objects.");
+    }
+
+    /* The add-remote command
+     * the path uses / whatever the system, as in R1 ../other/.gitlet
+     */
+    public void addRemote(String remoteName, String path) {
+        File remote = join(REMOTES_DIR, remoteName);
+        if (remote.exists()) {
+            exitWithError("A remote with that name already exists.");
+        }
+        REMOTES_DIR.mkdir();
+        Refs.writeRef(remote, path);
+    }
+
+    /* The rm-remote command */
+    public void rmRemote(String remoteName) {
+        File remote = join(REMOTES_DIR, remoteName);
+        if (!remote.isFile()) {
+            exitWithError("A remote with that name does not exist.");
+        }
+        remote.delete();
+    }
+
+    /* get the remote named REMOTENAME, which must exist on disk */
+    private static Remote getRemote(String remoteName) {
+        File file = join(REMOTES_DIR, remoteName);
+        if (!file.isFile()) {
+            exitWithError("A remote with that name does not exist.");
+        }
+        String path = readContentsAsString(file).replace("/", File.separator);
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = new File(CWD, path);
+        }
+        Remote remote = new Remote(dir);
+        if (!remote.exists()) {
+            exitWithError("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /* The push command
+     * only a fast-forward is pushed: the head of the remote branch must be
+     * in the history of the current commit, which the commit graph answers
+     * without reading the remote's commits
+     */
+    public void push(String remoteName, String remoteBranchName) {
+        Remote remote = getRemote(remoteName);
+        String head = getCurrentCommit().getSha1ID();
+        String remoteHead = remote.getBranchHead(remoteBranchName);
+        if (remoteHead != null && !isAncestor(remoteHead, head)) {
+            exitWithError("Please pull down remote changes before pushing.");
+        }
+
+        Remote.copyObjects(OBJECT_STORE, remote.getStore(), head);
+        remote.getRefs().update(remoteBranchName, head);
+    }
+
+    /* check if the commit ANCESTOR is in the history of the commit ID */
+    private static boolean isAncestor(String ancestor, String id) {
+        if (!OBJECT_STORE.contains(ancestor)) {
+            return false;
+        }
+        CommitGraph graph = getCommitGraph();
+        int pos = graph.position(ancestor);
+        boolean result = graph.mergeBase(pos, graph.position(id)) == pos;
+        graph.save();
+        return result;
+    }
+
+    /* The fetch command
+     * the branch is copied to the branch R/B, where R is the remote
+     * and B the remote branch
+     */
+    public void fetch(String remoteName, String remoteBranchName) {
+        Remote remote = getRemote(remoteName);
+        String head = remote.getBranchHead(remoteBranchName);
+        if (head == null) {
+            exitWithError("That remote does not have that branch.");
+        }
+
+        Remote.copyObjects(remote.getStore(), OBJECT_STORE, head);
+        updateBranchHead(remoteName + "/" + remoteBranchName, head);
+    }
+
+    /* The pull command
+     * a fast-forward moves the current branch to the fetched head and
+     * checks it out, as reset does, rather than switching to R/B
+     */
+    public void pull(String remoteName, String remoteBranchName) {
+        fetch(remoteName, remoteBranchName);
+        String branchName = remoteName + "/" + remoteBranchName;
+        String head = getBranchHead(branchName);
+        String current = getCurrentCommit().getSha1ID();
+        if (!head.equals(current) && isAncestor(current, head)) {
+            checkStage();
+            updateWorkingTree(readCommit(head));
+            updateBranchHead(getCurrentBranch(), head);
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        merge(branchName);
     }
 
     /* The merge command */
@@ -506,8 +1125,8 @@ public class Repository {
             exitWithError("Cannot merge a branch with itself.");
         }
 
-        Commit branchHeadCommit = readObject(getBranchHeadFile(branchName), Commit.class);
-        Commit currentCommit = readObject(getBranchHeadFile(currentBranch) , Commit.class);
+        Commit branchHeadCommit = readCommit(getBranchHead(branchName));
+        Commit currentCommit = readCommit(getBranchHead(currentBranch));
         checkCWD(branchHeadCommit);
 
         Commit splitPoint = getLastCommonAncestor(branchHeadCommit, currentCommit);
@@ -526,21 +1145,30 @@ public class Repository {
         }
 
         /* Merge the heads of these two branches */
-        Map<String, String> blobs = mergeIntoNewCommit(splitPoint, currentCommit, branchHeadCommit);
+        OBJECT_STORE.beginBatch();
+        String tree = mergeIntoNewCommit(splitPoint, currentCommit, branchHeadCommit);
         ArrayList<String> parents = new ArrayList<>();
-        parents.add(getCurrentBranch());
-        parents.add(branchName);
-        String msg = "Merge" + " " + branchName + " " + "into" + " " + getCurrentBranch() + ".";
-        Commit newCommit = new Commit(msg, parents, blobs);
+        parents.add(currentCommit.getSha1ID());
+        parents.add(branchHeadCommit.getSha1ID());
+        String msg = "Merge" + " " + branchName + " " + "into" + " " + currentBranch + ".";
+        Commit newCommit = new Commit(msg, parents, tree);
         newCommit.save();
+        OBJECT_STORE.commitBatch();
+        recordCommit(newCommit);
+        updateBranchHead(currentBranch, newCommit.getSha1ID());
     }
 
-    /* help merging the input commits */
-    private Map<String, String> mergeIntoNewCommit(Commit splitPoint, Commit currentCommit, Commit mergeCommit) {
-        List<String> allFiles = getAllMergeFiles(splitPoint, currentCommit, mergeCommit);
-        Map<String, String> splitBlobs = splitPoint.getBlobs();
-        Map<String, String> currentBlobs = currentCommit.getBlobs();
-        Map<String, String> mergeCommitBlobs = mergeCommit.getBlobs();
+    /* help merging the input commits
+     * returns the tree of the merged commit
+     */
+    private String mergeIntoNewCommit(Commit splitPoint, Commit currentCommit, Commit mergeCommit) {
+        /* Only the files changed since the split point matter,
+         * and the tree diffs skip every directory that did not change
+         */
+        Map<String, String[]> currentChanges = Tree.diff(OBJECT_STORE,
+                splitPoint.getTreeId(), currentCommit.getTreeId());
+        Map<String, String[]> mergeChanges = Tree.diff(OBJECT_STORE,
+                splitPoint.getTreeId(), mergeCommit.getTreeId());
 
         /* All possible merge cases table
                   split   HEAD   other   result
@@ -548,97 +1176,67 @@ public class Repository {
           case 2    B     !B       B       !B    Modified in HEAD but not in other
           case 3-1  C     !C      !C       !C    Same modification in both
          *case 3-2  D     !D      !D    conflict Different modification in other and HEAD
+                                                (removing or adding the file included)
           case 4    X      E       X        E    Not in split and other but in HEAD
          *case 5    X      X      !F       !F    Not in split and HEAD but in other
          *case 6    G      G       X        X    Unmodified in HEAD but removed in other
           case 7    H      X       H        X    Unmodified in other but removed in HEAD
 
-         case 1, 5: change to other
-         case 6: remove
-         case 2, 3-1, 4, 7: remain unchanged
+         case 1, 5, 6: change to other
+         case 2, 3-1, 4, 7: remain unchanged, not in the changes of other
          case 3-2: solve conflict
          */
 
-        List<String> listToAdd = new ArrayList<>();    /* case 5 */
-        List<String> listToChange = new ArrayList<>(); /* case 1 */
-        List<String> listToRemove = new ArrayList<>(); /* case 6 */
-        List<String> listToMerge = new ArrayList<>();  /* case 3-2 */
-
-        for (String filename : allFiles) {
-            if (mergeCommitBlobs.containsKey(filename)) {
-                /* case 5 */
-                if (!currentBlobs.containsKey(filename) && !splitBlobs.containsKey(filename)) {
-                    listToAdd.add(filename);
-                } else if (currentBlobs.containsKey(filename) && splitBlobs.containsKey(filename)) {
-                    /* case 1 */
-                    if (currentBlobs.get(filename).equals(splitBlobs.get(filename))) {
-                        listToChange.add(filename);
-                    } else if (!mergeCommitBlobs.get(filename).equals(splitBlobs.get(filename))
-                            && !mergeCommitBlobs.get(filename).equals(currentBlobs.get(filename))) {
-                        /* case 3-2 */
-                        listToMerge.add(filename);
-                    }
-                }
-            } else if (currentBlobs.containsKey(filename) && splitBlobs.containsKey(filename)){
-                if (currentBlobs.get(filename).equals(splitBlobs.get(filename))){
-                    /* case 6 */
-                    listToRemove.add(filename);
-                }
-            }
-        }
-
-        if (!listToAdd.isEmpty()) {
-            for (String f : listToAdd) {
-                String thisValue = mergeCommitBlobs.get(f);
-                currentBlobs.put(f, thisValue);
+        Map<String, String> changes = new TreeMap<>(); /* case 1, 5, 6 */
+        List<String> listToMerge = new ArrayList<>();   /* case 3-2 */
+        for (Map.Entry<String, String[]> entry : mergeChanges.entrySet()) {
+            String filename = entry.getKey();
+            String mergeBlob = entry.getValue()[1];
+            if (!currentChanges.containsKey(filename)) {
+                changes.put(filename, mergeBlob);
+            } else if (!Objects.equals(currentChanges.get(filename)[1], mergeBlob)) {
+                listToMerge.add(filename);
             }
         }
 
-        if (!listToRemove.isEmpty()) {
-            for (String f : listToRemove) {
-                String thisValue = currentBlobs.get(f);
-                currentBlobs.remove(f, thisValue);
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                deleteWorkingFile(entry.getKey());
+            } else {
+                writeWorkingFile(entry.getKey(), entry.getValue());
             }
         }
 
-        if (!listToChange.isEmpty()) {
-            for (String f : listToChange) {
-                String thisValue =mergeCommitBlobs.get(f);
-                currentBlobs.replace(f, thisValue);
+        /* case 3-2: merge the lines, see Diff3 */
+        boolean conflict = false;
+        for (String f : listToMerge) {
+            File mergedFile = join(CWD, f);
+            mergedFile.getParentFile().mkdirs();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(mergedFile))) {
+                conflict |= Diff3.merge(readBlob(currentChanges.get(f)[0]),
+                        readBlob(currentChanges.get(f)[1]), readBlob(mergeChanges.get(f)[1]), out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
+            Blob newBlob = new Blob(f, mergedFile);
+            newBlob.save();
+            changes.put(f, newBlob.getID());
         }
-
-        if (!listToMerge.isEmpty()) {
+        if (conflict) {
             System.out.println("Encountered a merge conflict.");
-            for (String f : listToMerge) {
-                Blob conflictBlobInCurrent = readObject(getObjFile(currentBlobs.get(f)), Blob.class);
-                String conflictContentInCurrent = conflictBlobInCurrent.getContent().toString();
-                Blob conflictBlobInMerge = readObject(getObjFile(mergeCommitBlobs.get(f)), Blob.class);
-                String conflictContentInMerge = conflictBlobInMerge.getContent().toString();
-                String conflictContents = "<<<<<<< HEAD\n" + conflictContentInCurrent
-                        + "=======\n" + conflictContentInMerge + ">>>>>>>\n";
-                File conflictFile = join(CWD, f);
-                writeContents(conflictFile, conflictContents);
-                Blob newBlob = new Blob(f, conflictFile);
-                newBlob.save();
-                currentBlobs.put(f, newBlob.getID());
-            }
         }
 
-        return currentBlobs;
+        return Tree.update(OBJECT_STORE, currentCommit.getTreeId(), changes);
     }
 
-    /* Get all the files from the commits */
-    private List<String> getAllMergeFiles(Commit splitPoint, Commit current, Commit mergeCommit) {
-        Set<String> all = new HashSet<>(splitPoint.getBlobs().keySet());
-        all.addAll(current.getBlobs().keySet());
-        all.addAll(mergeCommit.getBlobs().keySet());
-        List<String> allFiles = new ArrayList<>();
-        allFiles.addAll(all);
-        return allFiles;
+    /* Read the contents of the blob, nothing if the file is missing */
+    private byte[] readBlob(String blobID) {
+        if (blobID == null) {
+            return new byte[0];
+        }
+        return OBJECT_STORE.read(blobID, ObjectStore.BLOB);
     }
 
-
     /* check the staging area if it has any uncommitted change */
     private void checkStage() {
         StagingArea stage = StagingArea.fromFile();
@@ -647,22 +1245,13 @@ public class Repository {
         }
     }
 
-    /* get the latest common ancestor */
+    /* get the latest common ancestor
+     * a pruned walk over the commit graph, see CommitGraph.mergeBase
+     */
     private Commit getLastCommonAncestor(Commit a, Commit b) {
-        Comparator<Commit> commitComparator = Comparator.comparing(Commit::getTime).reversed();
-        PriorityQueue<Commit> commitToCheck = new PriorityQueue<>(commitComparator);
-        commitToCheck.add(a);
-        commitToCheck.add(b);
-        Set<String> candidates = new HashSet<>();
-        while (true) {
-            Commit thisCommit = commitToCheck.poll();
-            String parentID = thisCommit.getParents().get(0);
-            Commit parent = thisCommit.getParent(0);
-            if (candidates.contains(parentID)) {
-                return parent;
-            }
-            commitToCheck.add(parent);
-            candidates.add(parentID);
-        }
+        CommitGraph graph = getCommitGraph();
+        int base = graph.mergeBase(graph.position(a.getSha1ID()), graph.position(b.getSha1ID()));
+        graph.save();
+        return readCommit(graph.getId(base));
     }
 }
@@ -1,17 +1,30 @@
 package gitlet;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 /** Represents a staging area object.
+ *
+ *  Besides the staged files, the staging area caches the size, mtime and
+ *  file key (the inode on Unix) of every file it has hashed, together
+ *  with the resulting blob id. A file whose stat still matches is known
+ *  to be unchanged without reading it again. A file modified within the
+ *  same mtime tick as the stage was written could look unchanged, so such
+ *  "racy" entries are always hashed again.
  *
  *  @author Jiehao Guan
  */
 
 public class StagingArea implements Serializable {
+    /* Kept from the first version, so existing stages still load */
+    private static final long serialVersionUID = -126085916813981524L;
 
     /* The map of the added files
      * the filename as the key
@@ -24,14 +37,56 @@ public class StagingArea implements Serializable {
      */
     private Set<String> removedStage = new HashSet<>();
 
+    /* The cached stat of the hashed files
+     * the filename as the key
+     * null in stages written before the cache existed
+     */
+    private Map<String, FileStat> stats = new HashMap<>();
+
+    /* The mtime of the INDEX file when it was read */
+    private transient long readAt;
+
+    /* Whether the cache changed since the staging area was read */
+    private transient boolean changed;
+
+    /* The stat of a file and the blob id its content hashed to */
+    static class FileStat implements Serializable {
+        /* The default it had, which the stages written so far carry */
+        private static final long serialVersionUID = 293787171901423845L;
+
+        private final long size;
+        private final long mtime;
+        private final String key;
+        private final String blobID;
+
+        FileStat(BasicFileAttributes attrs, String blobID) {
+            this.size = attrs.size();
+            this.mtime = attrs.lastModifiedTime().toMillis();
+            this.key = attrs.fileKey() == null ? null : attrs.fileKey().toString();
+            this.blobID = blobID;
+        }
+
+        /* Check if the file still has the same stat */
+        boolean matches(BasicFileAttributes attrs) {
+            String otherKey = attrs.fileKey() == null ? null : attrs.fileKey().toString();
+            return size == attrs.size() && mtime == attrs.lastModifiedTime().toMillis()
+                    && (key == null ? otherKey == null : key.equals(otherKey));
+        }
+    }
+
     /* Read the staging area from the INDEX file */
     public static StagingArea fromFile() {
-        return Utils.readObject(Repository.STAGE, StagingArea.class);
+        StagingArea stage = Utils.readObject(Repository.STAGE, StagingArea.class);
+        stage.readAt = Repository.STAGE.lastModified();
+        if (stage.stats == null) {
+            stage.stats = new HashMap<>();
+        }
+        return stage;
     }
 
-    /* Write the staging area to the INDEX */
+    /* Write the staging area to the INDEX, replacing it in one rename */
     public void save() {
-        Utils.writeObject(Repository.STAGE, this);
+        Utils.writeAtomically(Repository.STAGE, false, Utils.serialize(this));
     }
 
     /* Get the map of the added file */
@@ -53,7 +108,53 @@ public class StagingArea implements Serializable {
     public void clean() {
         addedStage.clear();
         removedStage.clear();
-        Utils.writeObject(Repository.STAGE, this);
+        Utils.writeAtomically(Repository.STAGE, false, Utils.serialize(this));
+    }
+
+    /* Read the stat of FILE, or null if it does not exist */
+    static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /* Get the cached blob id of FILENAME if ATTRS, its current stat, still
+     * matches the cache, or null if the file has to be hashed
+     */
+    public String getCachedID(String filename, BasicFileAttributes attrs) {
+        FileStat cached = stats.get(filename);
+        if (cached == null || attrs == null || !cached.matches(attrs)) {
+            return null;
+        }
+        /* Racy: the file may have changed again in the same mtime tick */
+        if (cached.mtime >= readAt) {
+            return null;
+        }
+        return cached.blobID;
+    }
+
+    /* Remember that FILENAME with the stat ATTRS hashed to BLOBID */
+    public void cacheID(String filename, BasicFileAttributes attrs, String blobID) {
+        FileStat old = stats.get(filename);
+        /* A racy entry is saved again, so it stops being racy */
+        if (old != null && old.matches(attrs) && old.blobID.equals(blobID)
+                && old.mtime < readAt) {
+            return;
+        }
+        stats.put(filename, new FileStat(attrs, blobID));
+        changed = true;
+    }
+
+    /* Forget the cached stat of FILENAME */
+    public void uncache(String filename) {
+        changed |= stats.remove(filename) != null;
+    }
+
+    /* Check if the cache changed since the staging area was read */
+    public boolean isChanged() {
+        return changed;
     }
 
 }
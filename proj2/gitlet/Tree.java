@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Represents a gitlet tree object: one directory of a commit.
+ *  Each entry maps a name to either a blob or another tree, and a tree
+ *  is stored under the SHA-1 of its encoding, so two commits that share
+ *  a directory share the tree object too. Only the trees on the path of
+ *  a changed file are rewritten by a commit, and two trees with the same
+ *  id can be skipped without looking inside them.
+ *
+ *  Encoding: entry count (4 bytes), then for each entry sorted by name:
+ *  type (1 byte), 2-byte length + UTF-8 name, 20 raw id bytes.
+ *
+ *  @author Jiehao Guan
+ */
+public class Tree {
+    /* The path separator of filenames inside a commit */
+    static final char SEPARATOR = '/';
+
+    /* An entry of the tree, pointing at a blob or a subtree */
+    static class Entry {
+        final byte type;
+        final String id;
+
+        Entry(byte type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return type == ObjectStore.TREE;
+        }
+    }
+
+    /* The entries, sorted by name */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /* Get the entries of the tree */
+    public SortedMap<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /* Check if the tree has no entries */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /* Encode the tree, see the class comment for the layout */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(entry.getValue().type);
+                out.writeShort(name.length);
+                out.write(name);
+                out.write(Utils.hexToBytes(entry.getValue().id));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing tree.");
+        }
+    }
+
+    /* Decode a tree from BYTES */
+    public static Tree decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Tree tree = new Tree();
+        int count = in.getInt();
+        byte[] id = new byte[PackFile.ID_SIZE];
+        for (int i = 0; i < count; i += 1) {
+            byte type = in.get();
+            byte[] name = new byte[in.getShort() & 0xffff];
+            in.get(name);
+            in.get(id);
+            tree.entries.put(new String(name, StandardCharsets.UTF_8),
+                    new Entry(type, Utils.bytesToHex(id, 0, id.length)));
+        }
+        return tree;
+    }
+
+    /* Save the tree to STORE and return its id */
+    public String write(ObjectStore store) {
+        byte[] bytes = encode();
+        String id = Utils.sha1(bytes);
+        store.write(id, ObjectStore.TREE, bytes);
+        return id;
+    }
+
+    /* Read the tree ID from STORE, an empty tree if ID is null */
+    public static Tree read(ObjectStore store, String id) {
+        if (id == null) {
+            return new Tree();
+        }
+        return decode(store.read(id, ObjectStore.TREE));
+    }
+
+    /* Build and save the trees of the flat map BLOBS of path to blob id.
+     * Returns the id of the root tree.
+     */
+    public static String build(ObjectStore store, Map<String, String> blobs) {
+        return update(store, (String) null, blobs);
+    }
+
+    /* Apply CHANGES, a map of path to the new blob id (null to remove the
+     * path), to the tree ROOTID. Only the trees on the changed paths are
+     * read and rewritten. Returns the id of the new root tree.
+     */
+    public static String update(ObjectStore store, String rootId, Map<String, String> changes) {
+        Tree root = updateTree(store, read(store, rootId), changes);
+        return root.write(store);
+    }
+
+    /* Apply CHANGES to TREE, saving every changed subtree */
+    private static Tree updateTree(ObjectStore store, Tree tree, Map<String, String> changes) {
+        Map<String, Map<String, String>> subChanges = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.entries.remove(path);
+            } else {
+                tree.entries.put(path, new Entry(ObjectStore.BLOB, change.getValue()));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> sub : subChanges.entrySet()) {
+            Entry old = tree.entries.get(sub.getKey());
+            Tree subtree = read(store, old != null && old.isTree() ? old.id : null);
+            subtree = updateTree(store, subtree, sub.getValue());
+            if (subtree.isEmpty()) {
+                tree.entries.remove(sub.getKey());
+            } else {
+                tree.entries.put(sub.getKey(), new Entry(ObjectStore.TREE, subtree.write(store)));
+            }
+        }
+        return tree;
+    }
+
+    /* Get the blob id of PATH in the tree ROOTID, or null if it is not there */
+    public static String lookup(ObjectStore store, String rootId, String path) {
+        String treeId = rootId;
+        int start = 0;
+        while (treeId != null) {
+            int slash = path.indexOf(SEPARATOR, start);
+            String name = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            Entry entry = read(store, treeId).entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (slash < 0) {
+                return entry.isTree() ? null : entry.id;
+            }
+            treeId = entry.isTree() ? entry.id : null;
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    /* Get every file of the tree ROOTID as a map of path to blob id */
+    public static Map<String, String> flatten(ObjectStore store, String rootId) {
+        Map<String, String> result = new TreeMap<>();
+        flatten(store, rootId, "", result);
+        return result;
+    }
+
+    /* Add every file under the tree ID to RESULT, prefixing paths with PREFIX */
+    private static void flatten(ObjectStore store, String id, String prefix,
+                                Map<String, String> result) {
+        for (Map.Entry<String, Entry> entry : read(store, id).entries.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().isTree()) {
+                flatten(store, entry.getValue().id, path + SEPARATOR, result);
+            } else {
+                result.put(path, entry.getValue().id);
+            }
+        }
+    }
+
+    /* Compare the trees A and B. Returns a map of every path whose blob
+     * differs to {blob id in A, blob id in B}, with null for a missing
+     * file. Subtrees with equal ids are skipped without being read.
+     */
+    public static Map<String, String[]> diff(ObjectStore store, String a, String b) {
+        Map<String, String[]> result = new TreeMap<>();
+        diff(store, a, b, "", result);
+        return result;
+    }
+
+    /* Add the differences between the trees A and B under PREFIX to RESULT */
+    private static void diff(ObjectStore store, String a, String b, String prefix,
+                             Map<String, String[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        SortedMap<String, Entry> left = read(store, a).entries;
+        SortedMap<String, Entry> right = read(store, b).entries;
+        TreeSet<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+
+        for (String name : names) {
+            Entry l = left.get(name);
+            Entry r = right.get(name);
+            if (l != null && r != null && l.type == r.type && l.id.equals(r.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            String leftTree = l != null && l.isTree() ? l.id : null;
+            String rightTree = r != null && r.isTree() ? r.id : null;
+            if (leftTree != null || rightTree != null) {
+                diff(store, leftTree, rightTree, path + SEPARATOR, result);
+            }
+            String leftBlob = l != null && !l.isTree() ? l.id : null;
+            String rightBlob = r != null && !r.isTree() ? r.id : null;
+            if (leftBlob != null || rightBlob != null) {
+                result.put(path, new String[] {leftBlob, rightBlob});
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Formats the change of one file as a unified diff, as git diff does:
+ *
+ *      diff --git a/PATH b/PATH
+ *      --- a/PATH            (--- /dev/null for a new file)
+ *      +++ b/PATH            (+++ /dev/null for a deleted file)
+ *      @@ -START,COUNT +START,COUNT @@
+ *       a line in both
+ *      -a line only in the old file
+ *      +a line only in the new file
+ *
+ *  Each hunk has up to CONTEXT unchanged lines around its changes, and
+ *  changes closer than twice that share a hunk. A file with a zero byte
+ *  in its first BINARY_CHECK bytes is only reported as differing.
+ *
+ *  @author Jiehao Guan
+ */
+public class UnifiedDiff {
+    /* The number of unchanged lines shown around a change */
+    static final int CONTEXT = 3;
+
+    /* The number of leading bytes checked for a zero byte */
+    private static final int BINARY_CHECK = 8000;
+
+    private static final byte[] NO_NEWLINE =
+            "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /* Get the diff of PATH from BEFORE to AFTER, either of which is null
+     * if the file is missing on that side
+     */
+    public static byte[] format(String path, byte[] before, byte[] after) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String oldName = before == null ? "/dev/null" : "a/" + path;
+        String newName = after == null ? "/dev/null" : "b/" + path;
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        if (before == null) {
+            write(out, "new file\n");
+        } else if (after == null) {
+            write(out, "deleted file\n");
+        }
+        if (isBinary(before) || isBinary(after)) {
+            write(out, "Binary files " + oldName + " and " + newName + " differ\n");
+            return out.toByteArray();
+        }
+
+        Diff.LineTable ids = new Diff.LineTable();
+        Diff.Lines a = new Diff.Lines(before == null ? new byte[0] : before, ids);
+        Diff.Lines b = new Diff.Lines(after == null ? new byte[0] : after, ids);
+        List<Diff.Hunk> hunks = Diff.diff(a, b);
+        if (hunks.isEmpty()) {
+            return out.toByteArray();
+        }
+        write(out, "--- " + oldName + "\n");
+        write(out, "+++ " + newName + "\n");
+
+        int first = 0;
+        while (first < hunks.size()) {
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            writeHunk(out, a, b, hunks.subList(first, last + 1));
+            first = last + 1;
+        }
+        return out.toByteArray();
+    }
+
+    /* Write one hunk of the changes HUNKS from A to B, with context */
+    private static void writeHunk(ByteArrayOutputStream out, Diff.Lines a, Diff.Lines b,
+                                  List<Diff.Hunk> hunks) {
+        Diff.Hunk head = hunks.get(0);
+        Diff.Hunk tail = hunks.get(hunks.size() - 1);
+        int aStart = Math.max(0, head.aStart - CONTEXT);
+        int aEnd = Math.min(a.size(), tail.aEnd + CONTEXT);
+        int bStart = head.bStart - (head.aStart - aStart);
+        int bEnd = tail.bEnd + (aEnd - tail.aEnd);
+        write(out, "@@ -" + range(aStart, aEnd - aStart)
+                + " +" + range(bStart, bEnd - bStart) + " @@\n");
+
+        int pos = aStart;
+        for (Diff.Hunk hunk : hunks) {
+            writeLines(out, ' ', a, pos, hunk.aStart);
+            writeLines(out, '-', a, hunk.aStart, hunk.aEnd);
+            writeLines(out, '+', b, hunk.bStart, hunk.bEnd);
+            pos = hunk.aEnd;
+        }
+        writeLines(out, ' ', a, pos, aEnd);
+    }
+
+    /* Format the range of COUNT lines from START as in a hunk header */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /* Write the lines of FILE from START to END, each after PREFIX */
+    private static void writeLines(ByteArrayOutputStream out, char prefix,
+                                   Diff.Lines file, int start, int end) {
+        for (int i = start; i < end; i += 1) {
+            out.write(prefix);
+            out.write(file.data, file.starts[i], file.starts[i + 1] - file.starts[i]);
+            if (i == file.size() - 1 && !file.endsWithNewline()) {
+                out.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+            }
+        }
+    }
+
+    /* Check if DATA has a zero byte near its start */
+    private static boolean isBinary(byte[] data) {
+        if (data == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(data.length, BINARY_CHECK); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
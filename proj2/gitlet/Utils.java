@@ -3,19 +3,25 @@ package gitlet;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -33,28 +39,32 @@ class Utils {
 
     /* SHA-1 HASH VALUES. */
 
+    /** The hexadecimal digits, indexed by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The size of the buffer files are hashed through. */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /** One SHA-1 digest per thread, so hashing never looks up a provider
+     *  again and parallel adds do not share state. */
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        });
+
+    /** One buffer per thread to stream files and encode strings through. */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays, Strings and Files. A File is hashed
+     *  by streaming its contents, without reading it into memory. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return bytesToHex(sha1Raw(vals), 0, ObjectId.SIZE);
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -63,6 +73,107 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of VALS, as for sha1, as an ObjectId. */
+    static ObjectId sha1Id(Object... vals) {
+        return ObjectId.fromBytes(sha1Raw(vals), 0);
+    }
+
+    /** Returns the raw 20-byte SHA-1 hash of VALS, as for sha1. */
+    static byte[] sha1Raw(Object... vals) {
+        MessageDigest md = SHA1_DIGEST.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                updateString(md, (String) val);
+            } else if (val instanceof File) {
+                updateFile(md, (File) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        return md.digest();
+    }
+
+    /** Adds the UTF-8 bytes of S to MD. Pure ASCII strings, which almost
+     *  all filenames are, skip the encoder and the temporary array. */
+    private static void updateString(MessageDigest md, String s) {
+        ByteBuffer buffer = HASH_BUFFER.get();
+        int n = s.length();
+        if (n > buffer.capacity()) {
+            md.update(s.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        buffer.clear();
+        for (int i = 0; i < n; i += 1) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                md.update(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+        buffer.flip();
+        md.update(buffer);
+    }
+
+    /** Adds the contents of FILE to MD, one buffer at a time. */
+    private static void updateFile(MessageDigest md, File file) {
+        ByteBuffer buffer = HASH_BUFFER.get();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff ID is a full object id: UID_LENGTH lower-case
+     *  hexadecimal digits. */
+    static boolean isObjectId(String id) {
+        if (id.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i += 1) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the raw bytes of the hexadecimal numeral HEX. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("not a hexadecimal numeral: " + hex);
+            }
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    /** Returns the LENGTH bytes of BYTES starting at OFFSET as a
+     *  lower-case hexadecimal numeral. */
+    static String bytesToHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -157,6 +268,49 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /** Write the concatenation of CONTENTS to FILE through a temporary
+     *  file in the same directory that is then renamed over FILE, so FILE
+     *  always holds either its old or its new contents. If SYNC, the new
+     *  contents are forced to disk before the rename. */
+    static void writeAtomically(File file, boolean sync, byte[]... contents) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                for (byte[] part : contents) {
+                    ByteBuffer buffer = ByteBuffer.wrap(part);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                if (sync) {
+                    out.force(true);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Force the entries of the directory DIR, such as files just renamed
+     *  into it, to disk. Does nothing where a directory cannot be opened
+     *  for syncing. */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            /* Not supported on this platform, the rename still happened */
+        }
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -236,10 +390,25 @@ class Utils {
         System.out.println();
     }
 
+    /* Stop the command with the error MSG, which Main prints */
     static void exitWithError(String msg) {
-        System.out.println(msg);
-        System.exit(0);
+        throw new GitletException(msg);
+    }
+
+    /* The stream commands with a lot of output write to directly, instead
+     * of through System.out: the standard output, or the connection of a
+     * daemon client while the daemon runs its command
+     */
+    private static OutputStream output = new FileOutputStream(FileDescriptor.out);
+
+    static synchronized OutputStream output() {
+        return output;
+    }
+
+    static synchronized void setOutput(OutputStream out) {
+        output = out;
     }
+
     /* Check the number of the input command is correct */
     static void validateNumberArgs(String[] args, int number) {
         if (args.length != number) {
@@ -264,13 +433,4 @@ class Utils {
         return id.substring(2);
     }
 
-    /* Save the obj to the folder */
-    static void saveObj(File file, Serializable obj) {
-        File directory = file.getParentFile();
-        if (!directory.exists()) {
-            directory.mkdir();
-        }
-        writeObject(file, obj);
-    }
-
 }